@@ -35,12 +35,14 @@ public class HyperbolicTangentActivation implements ActivationFunction {
 		// TODO Auto-generated constructor stub
 	}
 
+	// (e^2x - 1) / (e^2x + 1), Math.tanh() does not overflow to NaN for large x
 	public double activate(final double x) {
-		return (Math.exp(x * 2.0) - 1.0) / (Math.exp(x * 2.0) + 1.0);
+		return Math.tanh(x);
 	}
 
+	// x is the neuron output y = tanh(net) as for SigmoidActivation, dy/dnet = 1 - y^2
 	public double derivative(final double x) {
-		return 1.0 - Math.pow(activate(x), 2.0);
+		return 1.0 - x * x;
 	}
 
 }
@@ -39,9 +39,8 @@ public class LinearActivation implements ActivationFunction {
 		return x;
 	}
 
+	// dy/dnet of y = net, e.g. for a linear output layer of a regression net
 	public double derivative(final double x) {
-		new RuntimeException(
-				"derivativeFunction: Can't use the linear activation function where a derivative is required.");
 		return 1.0;
 	}
 
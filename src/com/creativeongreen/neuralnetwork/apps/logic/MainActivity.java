@@ -22,8 +22,16 @@
 
 package com.creativeongreen.neuralnetwork.apps.logic;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
 import com.creativeongreen.neuralnetwork.nets.BackpropagationNet;
+import com.creativeongreen.neuralnetwork.nets.FrozenNet;
+import com.creativeongreen.neuralnetwork.nets.MultiRestartTrainer;
+import com.creativeongreen.neuralnetwork.nets.TrainingScheduler;
 import com.creativeongreen.neuralnetwork.preference.UserSettingActivity;
+import com.creativeongreen.neuralnetwork.util.BooleanDataSetGenerator;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -59,6 +67,12 @@ public class MainActivity extends Activity {
 	private static final int INTENT_REQUEST_SETTINGS_UPDATED = 1;
 
 	private static final int MSG_HANDLER_TRAINING_FINISHED = 1;
+	private static final int MSG_HANDLER_TRAINING_PROGRESS = 2;
+	private static final int MSG_HANDLER_TRAINING_STOPPED = 3;
+
+	// training jobs admitted at once and the time slice they take turns with
+	private static final int SCHEDULER_MAX_JOBS = 8;
+	private static final long SCHEDULER_SLICE_MILLIS = 20;
 
 	private static final int SETTINGS_PARAMS_GENERAL_PERCENT = 100;
 	private static final String SETTINGS_PARAMS_KEY_NUM_HIDDEN_NEURONS = "paramNumHiddenNeurons";
@@ -67,6 +81,7 @@ public class MainActivity extends Activity {
 	private static final String SETTINGS_PARAMS_KEY_GLOBAL_ERROR = "paramGlobalError";
 	private static final String SETTINGS_PARAMS_KEY_MAX_EPOCH = "paramMaxEpoch";
 	private static final String SETTINGS_PARAMS_KEY_NOISE_DEGREE = "paramNoiseDegree";
+	private static final String SETTINGS_PARAMS_KEY_NUM_RESTARTS = "paramNumRestarts";
 
 	public static double LOGIC_INPUT[][] = { { 0.0, 0.0 }, { 0.0, 1.0 },
 			{ 1.0, 0.0 }, { 1.0, 1.0 } };
@@ -79,18 +94,29 @@ public class MainActivity extends Activity {
 
 	public static double OR_EXPECTED[][] = { { 0.0 }, { 1.0 }, { 1.0 }, { 1.0 } };
 
+	// XOR, AND and OR as the 3 outputs of one net sharing its hidden layer
+	public static double GATES_EXPECTED[][] = BooleanDataSetGenerator
+			.stackOutputs(XOR_EXPECTED, AND_EXPECTED, OR_EXPECTED);
+
 	public static int numHiddenNeurons = 2;
 	public static double dLearningRate = 0.25;
 	public static double dMomentum = 0.9;
 	public static double dGlobalError = 0.00001;
 	public static double dMaxEpoch = 10000;
 	public static double dNoiseDegree = 0.2;
+	public static int numRestarts = 1;
 
 	BackpropagationNet net;
+	// inference copy of the trained net, used by the tests
+	FrozenNet frozenNet;
+	private MultiRestartTrainer multiRestartTrainer;
+	private ExecutorService esRestarts;
 	private RelativeLayout rlLogic;
 	private ProgressBar pbOnProcessing;
 	private TextView tvTestResults;
 	private Thread tTraining;
+	private TrainingScheduler trainingScheduler;
+	private TrainingScheduler.Job trainingJob;
 	private long lStartTime;
 	private double[][] expectedOutput;
 
@@ -111,8 +137,12 @@ public class MainActivity extends Activity {
 	protected void onPause() {
 		// Log.d(LOG_TAG, "onPause()");
 
+		if (trainingJob != null) {
+			trainingJob.cancel(true);
+			trainingJob = null;
+		}
 		if (tTraining != null) {
-			net.stopTraining();
+			multiRestartTrainer.stopTraining();
 			tTraining.interrupt();
 			tTraining = null;
 		}
@@ -121,6 +151,20 @@ public class MainActivity extends Activity {
 		super.onPause();
 	}
 
+	@Override
+	protected void onDestroy() {
+		if (esRestarts != null) {
+			esRestarts.shutdownNow();
+			esRestarts = null;
+		}
+		if (trainingScheduler != null) {
+			trainingScheduler.shutdown();
+			trainingScheduler = null;
+		}
+
+		super.onDestroy();
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Log.d(LOG_TAG, "onCreateOptionsMenu()");
@@ -163,7 +207,14 @@ public class MainActivity extends Activity {
 		startTraining(v, OR_EXPECTED);
 	}
 
+	public void onClickStartTraining4(View v) {
+		startTraining(v, GATES_EXPECTED);
+	}
+
 	public void onClickTestWithNoise(View v) {
+		// nothing trained yet
+		if (frozenNet == null)
+			return;
 		tvTestResults.append("\nTest with noise:\n");
 
 		double[] noiseInputData = new double[LOGIC_INPUT[0].length];
@@ -175,11 +226,11 @@ public class MainActivity extends Activity {
 						* ((dNoiseDegree * 2 * Math.random()) - dNoiseDegree);
 			}
 			tvTestResults.append(String.format("%1.4f", noiseInputData[0])
-					+ "  " + String.format("%1.4f", noiseInputData[1]) + "  ("
-					+ expectedOutput[i][0] + ") -> ");
+					+ "  " + String.format("%1.4f", noiseInputData[1]) + "  "
+					+ formatExpected(expectedOutput[i]) + " -> ");
 
-			net.feedForward(noiseInputData);
-			double[] y = net.getOutputResults();
+			double[] y = new double[frozenNet.getNumOutputs()];
+			frozenNet.computeOutputs(noiseInputData, y);
 			for (int j = 0; j < y.length; j++) {
 				tvTestResults.append(String.format("%1.10f", y[j]) + " ");
 			}
@@ -194,22 +245,78 @@ public class MainActivity extends Activity {
 		Toast.makeText(this, getString(R.string.start_training),
 				Toast.LENGTH_SHORT).show();
 
-		net = new BackpropagationNet(LOGIC_INPUT[0].length, numHiddenNeurons,
-				expected[0].length, dLearningRate, dMomentum, dMaxEpoch,
-				dGlobalError);
+		if (numRestarts > 1) {
+			// race mode: keep the first of numRestarts nets which converges
+			if (esRestarts == null)
+				esRestarts = Executors.newFixedThreadPool(Runtime.getRuntime()
+						.availableProcessors());
+			multiRestartTrainer = new MultiRestartTrainer(esRestarts,
+					numRestarts, LOGIC_INPUT[0].length, numHiddenNeurons,
+					expected[0].length, dLearningRate, dMomentum, dMaxEpoch,
+					dGlobalError);
+		} else {
+			multiRestartTrainer = null;
+			net = new BackpropagationNet(LOGIC_INPUT[0].length,
+					numHiddenNeurons, expected[0].length, dLearningRate,
+					dMomentum, dMaxEpoch, dGlobalError);
+		}
+		final MultiRestartTrainer restartTrainer = multiRestartTrainer;
 
 		lStartTime = System.currentTimeMillis();
 
+		if (restartTrainer == null) {
+			if (trainingScheduler == null)
+				trainingScheduler = new TrainingScheduler(Runtime.getRuntime()
+						.availableProcessors(), SCHEDULER_MAX_JOBS,
+						SCHEDULER_SLICE_MILLIS);
+			try {
+				trainingJob = trainingScheduler.submit(net, LOGIC_INPUT,
+						expected, TrainingScheduler.PRIORITY_INTERACTIVE, 0,
+						new TrainingScheduler.JobListener() {
+							@Override
+							public void onJobProgress(TrainingScheduler.Job job) {
+								BackpropagationNet jobNet = job.getNet();
+								hTrainMessageReceiver.obtainMessage(
+										MSG_HANDLER_TRAINING_PROGRESS,
+										new double[] {
+												jobNet.getEpoch(),
+												jobNet.getStopMetricError(),
+												jobNet.getEpoch()
+														* LOGIC_INPUT.length
+														* 1000.0
+														/ Math.max(1,
+																job.getRunMillis()) })
+										.sendToTarget();
+							}
+
+							@Override
+							public void onJobFinished(TrainingScheduler.Job job) {
+								postTrainingFinished(expected);
+							}
+						});
+			} catch (RejectedExecutionException e) {
+				Log.w(LOG_TAG, "startTraining: " + e.getMessage());
+				Toast.makeText(this, "Too many trainings queued, try again later",
+						Toast.LENGTH_SHORT).show();
+				pbOnProcessing.setVisibility(View.GONE);
+				rlLogic.setVisibility(View.VISIBLE);
+			}
+			return;
+		}
+
 		tTraining = new Thread(new Runnable() {
 			@Override
 			public void run() {
 
-				net.train(LOGIC_INPUT, expected);
-				// hTrainMessageReceiver.obtainMessage(MSG_HANDLER_TRAINING_FINISHED).sendToTarget();
-				Message message = hTrainMessageReceiver.obtainMessage();
-				message.what = MSG_HANDLER_TRAINING_FINISHED;
-				message.obj = new Object[] { (double[][]) expected };
-				message.sendToTarget();
+				try {
+					net = restartTrainer.train(LOGIC_INPUT, expected);
+				} catch (InterruptedException e) {
+					// activity paused, no net to report but the train buttons must come back
+					hTrainMessageReceiver.obtainMessage(
+							MSG_HANDLER_TRAINING_STOPPED).sendToTarget();
+					return;
+				}
+				postTrainingFinished(expected);
 
 			} // /run()
 		});
@@ -218,12 +325,27 @@ public class MainActivity extends Activity {
 
 	}
 
+	private void postTrainingFinished(double[][] expected) {
+		// hTrainMessageReceiver.obtainMessage(MSG_HANDLER_TRAINING_FINISHED).sendToTarget();
+		Message message = hTrainMessageReceiver.obtainMessage();
+		message.what = MSG_HANDLER_TRAINING_FINISHED;
+		message.obj = new Object[] { (double[][]) expected };
+		message.sendToTarget();
+	}
+
 	private final Handler hTrainMessageReceiver = new Handler() {
 
 		@Override
 		public void handleMessage(final Message message) {
 			switch (message.what) {
+			case MSG_HANDLER_TRAINING_PROGRESS:
+				double[] progress = (double[]) message.obj;
+				setTitle(String.format("epoch= %.0f, MSE= %2.1e, %.0f samples/s",
+						progress[0], progress[1], progress[2]));
+				break;
+
 			case MSG_HANDLER_TRAINING_FINISHED:
+				setTitle(R.string.app_name);
 				toastTrainingFinished();
 				long lTimeDifference = System.currentTimeMillis() - lStartTime;
 
@@ -231,16 +353,26 @@ public class MainActivity extends Activity {
 				double[][] expected = (double[][]) args[0];
 				tvTestResults.append("\nTraining Finished: timelapse= "
 						+ lTimeDifference + " millis, epoch= " + net.getEpoch()
-						+ "\nTest Results:\n");
+						+ ", MSE= " + String.format("%2.1e", net.getEpochMSE()));
+				if (expected[0].length > 1) {
+					// one error per gate of a multi-output net
+					double[] mse = new double[expected[0].length];
+					net.computeOutputMSE(LOGIC_INPUT, expected, mse);
+					tvTestResults.append("\nMSE per output=");
+					for (int k = 0; k < mse.length; k++)
+						tvTestResults.append(" " + String.format("%2.1e", mse[k]));
+				}
+				tvTestResults.append("\nTest Results:\n");
 				expectedOutput = expected;
+				frozenNet = net.freeze();
 
 				// test
+				double[] y = new double[frozenNet.getNumOutputs()];
 				for (int i = 0; i < LOGIC_INPUT.length; i++) {
-					net.feedForward(LOGIC_INPUT[i]);
+					frozenNet.computeOutputs(LOGIC_INPUT[i], y);
 					tvTestResults.append(LOGIC_INPUT[i][0] + "  "
-							+ LOGIC_INPUT[i][1] + "  (" + expected[i][0]
-							+ ") -> ");
-					double[] y = net.getOutputResults();
+							+ LOGIC_INPUT[i][1] + "  "
+							+ formatExpected(expected[i]) + " -> ");
 					for (int j = 0; j < y.length; j++) {
 						tvTestResults.append(String.format("%1.10f", y[j])
 								+ " ");
@@ -252,6 +384,12 @@ public class MainActivity extends Activity {
 				rlLogic.setVisibility(View.VISIBLE);
 				break;
 
+			case MSG_HANDLER_TRAINING_STOPPED:
+				setTitle(R.string.app_name);
+				pbOnProcessing.setVisibility(View.GONE);
+				rlLogic.setVisibility(View.VISIBLE);
+				break;
+
 			default:
 				throw new IllegalArgumentException("cannot handle message");
 			} // switch
@@ -259,6 +397,17 @@ public class MainActivity extends Activity {
 
 	};
 
+	// "(0.0)" for a single output, "(0.0 1.0 1.0)" for several
+	private static String formatExpected(double[] expected) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int k = 0; k < expected.length; k++) {
+			if (k > 0)
+				sb.append(' ');
+			sb.append(expected[k]);
+		}
+		return sb.append(')').toString();
+	}
+
 	private void toastTrainingFinished() {
 		Toast.makeText(this, getString(R.string.training_finished),
 				Toast.LENGTH_SHORT).show();
@@ -294,6 +443,9 @@ public class MainActivity extends Activity {
 				* 1.0
 				/ SETTINGS_PARAMS_GENERAL_PERCENT;
 
+		numRestarts = settingsPreferences.getInt(
+				SETTINGS_PARAMS_KEY_NUM_RESTARTS, 1);
+
 		showParamsInfo();
 
 	}
@@ -305,7 +457,8 @@ public class MainActivity extends Activity {
 				+ String.format("%2.1e", dGlobalError) + "\nMax. Epoch = "
 				+ String.valueOf((int) dMaxEpoch)
 				+ "\nInput Data Noise Degree = (+/-) "
-				+ String.format("%2.2f", dNoiseDegree * 100) + "%\n");
+				+ String.format("%2.2f", dNoiseDegree * 100) + "%"
+				+ "\nNumber of Restarts = " + numRestarts + "\n");
 	}
 
 	private void showAbout() {
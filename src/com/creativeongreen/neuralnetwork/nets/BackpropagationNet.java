@@ -22,11 +22,18 @@
 
 package com.creativeongreen.neuralnetwork.nets;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 import android.util.Log;
 
+import com.creativeongreen.neuralnetwork.activation.ActivationFunction;
 import com.creativeongreen.neuralnetwork.activation.SigmoidActivation;
+import com.creativeongreen.neuralnetwork.util.PrefetchingBatchLoader;
+import com.creativeongreen.neuralnetwork.util.TrainingDataSet;
+import com.creativeongreen.neuralnetwork.util.XorShiftRandom;
 
 /**
 *
@@ -44,59 +51,300 @@ public class BackpropagationNet implements Serializable {
 	// private static final double MAX_NUMBER_OF_EPOCH = 200000;
 	// private static final double MIN_GLOBAL_ERROR = 0.00001;
 
+	// metrics compared against globalError to decide whether training has converged
+	// error of the most recent sample, 1/2 * sum( (expected[k] - output[k])^2 )
+	public static final int STOP_METRIC_SAMPLE_ERROR = 0;
+	// sum of squared errors over all samples and outputs of the last epoch
+	public static final int STOP_METRIC_SSE = 1;
+	// SSE divided by number of samples x number of outputs
+	public static final int STOP_METRIC_MSE = 2;
+
+	// rows per matrix product of batched inference
+	private static final int BATCH_SIZE = 64;
+
 	private NeuralLayer inputNeuralLayer;
 	private NeuralLayer hiddenNeuralLayer;
 	private NeuralLayer outputNeuralLayer;
 
 	private final ArrayList<NeuralLayer> neuralLayers = new ArrayList<NeuralLayer>();
 
+	// weights of all layers one after the other, layout of getParameters(), and the momentum
+	// history in the same layout; the layers work on these buffers directly
+	private final double[] parameters;
+	private final double[] changedParameters;
+
 	private double globalError;
 	private double learningRate;
 	private double momentum;
-	private double bias = 1.0;
 	private double maxEpoch, epoch;
 	private double trainingError = 1;
-	private boolean forceStop = false;
+	private double epochSumSquaredError = Double.MAX_VALUE;
+	private long numEpochSamples = 1;
+	private int stopMetric = STOP_METRIC_MSE;
+	private int convergenceCheckInterval = 1;
+	private StagnationDetector stagnationDetector;
+	private TrainingCheckpointer checkpointer;
+	private TrainingSession trainingSession;
+	// bumped once per training epoch and on every other weight change, lets caches of net
+	// outputs notice stale entries; volatile as caches read it from other threads, only the
+	// training thread writes it
+	private volatile long weightsVersion;
+	private final Random random;
+	// per-epoch shuffling of the training order, the permutation is kept between train() calls
+	private boolean shuffle = false;
+	private final XorShiftRandom shuffleRandom;
+	private int[] shuffleOrder;
+	private boolean converged = false;
+	// written by other threads through stopTraining()
+	private volatile boolean forceStop = false;
+
+	/*
+	 * assemble a net of any depth, e.g. new Builder(2).addLayer(4, new
+	 * HyperbolicTangentActivation()).addLayer(1, new SigmoidActivation()).build(); the last
+	 * layer added is the output layer
+	 */
+	public static class Builder {
+		private final int numInputNeurons;
+		private final ArrayList<Integer> layerSizes = new ArrayList<Integer>();
+		private final ArrayList<ActivationFunction> activations = new ArrayList<ActivationFunction>();
+		private final ArrayList<Boolean> biases = new ArrayList<Boolean>();
+		private double learningRate = 0.25;
+		private double momentum = 0.9;
+		private double maxEpoch = 10000;
+		private double globalError = 0.00001;
+		private Random random;
+
+		public Builder(int numInputNeurons) {
+			this.numInputNeurons = numInputNeurons;
+		}
+
+		// next layer on top of the previous one, its neurons get a bias weight
+		public Builder addLayer(int numNeurons, ActivationFunction activation) {
+			return addLayer(numNeurons, activation, true);
+		}
+
+		// bias: whether the neurons of this layer get a bias weight
+		public Builder addLayer(int numNeurons, ActivationFunction activation,
+				boolean bias) {
+			if (numNeurons < 1)
+				throw new IllegalArgumentException(
+						"addLayer: number of neurons must be >= 1");
+			if (activation == null)
+				throw new IllegalArgumentException(
+						"addLayer: activation function required");
+			layerSizes.add(numNeurons);
+			activations.add(activation);
+			biases.add(bias);
+			return this;
+		}
+
+		public Builder setLearningRate(double learningRate) {
+			this.learningRate = learningRate;
+			return this;
+		}
+
+		public Builder setMomentum(double momentum) {
+			this.momentum = momentum;
+			return this;
+		}
+
+		public Builder setMaxEpoch(double maxEpoch) {
+			this.maxEpoch = maxEpoch;
+			return this;
+		}
+
+		public Builder setGlobalError(double globalError) {
+			this.globalError = globalError;
+			return this;
+		}
+
+		// weights are drawn from a generator seeded with seed, so that runs are reproducible
+		public Builder setSeed(long seed) {
+			this.random = new Random(seed);
+			return this;
+		}
+
+		private Builder setRandom(Random random) {
+			this.random = random;
+			return this;
+		}
+
+		public BackpropagationNet build() {
+			if (layerSizes.isEmpty())
+				throw new RuntimeException("build: no layers added.");
+			return new BackpropagationNet(this);
+		}
+	}
 
 	public BackpropagationNet(int numInputNeurons, int numHiddenNeurons,
 			int numOutputNeurons, double learningRate, double momentum,
 			double epoch, double globalError) {
+		this(numInputNeurons, numHiddenNeurons, numOutputNeurons,
+				learningRate, momentum, epoch, globalError, null);
+	}
 
-		inputNeuralLayer = new NeuralLayer(null, bias, numInputNeurons, null);
-		neuralLayers.add(inputNeuralLayer);
+	// weights are drawn from a generator seeded with seed, so that runs are reproducible
+	public BackpropagationNet(int numInputNeurons, int numHiddenNeurons,
+			int numOutputNeurons, double learningRate, double momentum,
+			double epoch, double globalError, long seed) {
+		this(numInputNeurons, numHiddenNeurons, numOutputNeurons,
+				learningRate, momentum, epoch, globalError, new Random(seed));
+	}
 
-		hiddenNeuralLayer = new NeuralLayer(new SigmoidActivation(), bias,
-				numHiddenNeurons, inputNeuralLayer);
-		neuralLayers.add(hiddenNeuralLayer);
+	private BackpropagationNet(int numInputNeurons, int numHiddenNeurons,
+			int numOutputNeurons, double learningRate, double momentum,
+			double epoch, double globalError, Random random) {
+		this(legacyBuilder(numInputNeurons, numHiddenNeurons)
+				.addLayer(numOutputNeurons, new SigmoidActivation())
+				.setLearningRate(learningRate).setMomentum(momentum)
+				.setMaxEpoch(epoch).setGlobalError(globalError)
+				.setRandom(random));
+	}
 
-		outputNeuralLayer = new NeuralLayer(new SigmoidActivation(), 0.0,
-				numOutputNeurons, hiddenNeuralLayer);
-		neuralLayers.add(outputNeuralLayer);
+	// 0 hidden neurons (allowed by the settings) connects the inputs straight to the outputs
+	private static Builder legacyBuilder(int numInputNeurons,
+			int numHiddenNeurons) {
+		Builder builder = new Builder(numInputNeurons);
+		if (numHiddenNeurons > 0)
+			builder.addLayer(numHiddenNeurons, new SigmoidActivation());
+		return builder;
+	}
 
-		this.learningRate = learningRate;
-		this.momentum = momentum;
-		this.maxEpoch = epoch;
-		this.globalError = globalError;
+	private BackpropagationNet(Builder builder) {
+		Random random = builder.random;
+		this.random = (random != null) ? random : new Random();
+
+		// layer i outputs a bias unit if the neurons of layer i + 1 have a bias weight
+		int numLayers = builder.layerSizes.size() + 1;
+		int[] sizes = new int[numLayers];
+		boolean[] hasBias = new boolean[numLayers];
+		sizes[0] = builder.numInputNeurons;
+		int parameterCount = 0;
+		for (int i = 1; i < numLayers; i++) {
+			sizes[i] = builder.layerSizes.get(i - 1);
+			hasBias[i - 1] = builder.biases.get(i - 1);
+			parameterCount += (sizes[i - 1] + (hasBias[i - 1] ? 1 : 0))
+					* sizes[i];
+		}
+		parameters = new double[parameterCount];
+		changedParameters = new double[parameterCount];
+
+		NeuralLayer prevLayer = null;
+		int offset = 0;
+		for (int i = 0; i < numLayers; i++) {
+			NeuralLayer layer = new NeuralLayer((i == 0) ? null
+					: builder.activations.get(i - 1), hasBias[i] ? 1.0 : 0.0,
+					sizes[i], prevLayer, (i == 0) ? null : parameters,
+					(i == 0) ? null : changedParameters, offset, random);
+			offset += layer.getWeightCount();
+			neuralLayers.add(layer);
+			prevLayer = layer;
+		}
+		inputNeuralLayer = neuralLayers.get(0);
+		hiddenNeuralLayer = (numLayers > 2) ? neuralLayers.get(1) : null;
+		outputNeuralLayer = neuralLayers.get(numLayers - 1);
+
+		// drawn after the weights, so seeded nets keep their initial weights
+		shuffleRandom = new XorShiftRandom(this.random.nextLong());
+
+		this.learningRate = builder.learningRate;
+		this.momentum = builder.momentum;
+		this.maxEpoch = builder.maxEpoch;
+		this.globalError = builder.globalError;
 		this.forceStop = false;
 	}
 
 	public void train(double[][] inputTrainingSet,
 			double[][] expectedTrainingSet) {
+		train(inputTrainingSet, expectedTrainingSet, null);
+	}
 
+	/*
+	 * train on the rows listed in sampleIndices only, visited in that order each epoch, so that
+	 * subsets (e.g. cross-validation folds) share the training set instead of copying it; null
+	 * means all rows in their natural order; with setShuffle(true) the same rows are visited in
+	 * a new random order every epoch instead
+	 */
+	public void train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices) {
 		epoch = 0;
+		trainFromEpoch(inputTrainingSet, expectedTrainingSet, sampleIndices);
+	}
+
+	/*
+	 * train() asynchronously once the returned session is started; a timeout or cancel() of
+	 * the session ends that run only, later train() calls are not affected
+	 */
+	public TrainingSession newTrainingSession(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) {
+		return new TrainingSession(this, inputTrainingSet,
+				expectedTrainingSet, null);
+	}
+
+	public TrainingSession newTrainingSession(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices) {
+		return new TrainingSession(this, inputTrainingSet,
+				expectedTrainingSet, sampleIndices);
+	}
+
+	public void resume(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) throws IOException,
+			InterruptedException {
+		resume(inputTrainingSet, expectedTrainingSet, null);
+	}
+
+	/*
+	 * continue a run from the latest checkpoint of the checkpointer set by setCheckpointer():
+	 * weights, momentum history, epoch and shuffle state are restored, then training goes on
+	 * up to maxEpoch; without a checkpoint file this is the same as train()
+	 */
+	public void resume(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices)
+			throws IOException, InterruptedException {
+		if (checkpointer == null)
+			throw new RuntimeException("resume: no checkpointer set.");
+		if (!checkpointer.restore(this))
+			epoch = 0;
+		trainFromEpoch(inputTrainingSet, expectedTrainingSet, sampleIndices);
+	}
+
+	// go on training from the current epoch up to maxEpoch, e.g. for the next time slice of a job
+	void trainFromEpoch(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices) {
+
 		int indexTrainDataSet = 0;
 		double prevTrainingError = 0; // used on data tracking
-		while (trainingError > this.globalError && epoch < this.maxEpoch
-				&& !forceStop) {
+		double sumSquaredError = 0;
+		converged = false;
+		int numSamples = (sampleIndices == null) ? inputTrainingSet.length
+				: sampleIndices.length;
+		numEpochSamples = numSamples;
+
+		int[] order = sampleIndices;
+		if (shuffle) {
+			if (shuffleOrder == null || shuffleOrder.length != numSamples)
+				shuffleOrder = new int[numSamples];
+			order = shuffleOrder;
+			for (int i = 0; i < numSamples; i++)
+				order[i] = (sampleIndices == null) ? i : sampleIndices[i];
+			shuffleRandom.shuffle(order, numSamples);
+		}
+
+		while (!converged && epoch < this.maxEpoch && !isStopRequested()) {
 
-			feedForward(inputTrainingSet[indexTrainDataSet]);
-			backPropagation(expectedTrainingSet[indexTrainDataSet]);
+			int sample = (order == null) ? indexTrainDataSet
+					: order[indexTrainDataSet];
+			feedForward(inputTrainingSet[sample]);
+			sumSquaredError += trainStep(expectedTrainingSet[sample]);
 
-			indexTrainDataSet = (indexTrainDataSet + 1)
-					% inputTrainingSet.length;
+			indexTrainDataSet = (indexTrainDataSet + 1) % numSamples;
 
-			if (indexTrainDataSet == 0)
-				epoch++;
+			if (indexTrainDataSet == 0) {
+				endEpoch(sumSquaredError, inputTrainingSet);
+				sumSquaredError = 0;
+				if (shuffle)
+					shuffleRandom.shuffle(order, numSamples);
+			}
 
 			/*
 			 * if (epoch % 2000 == 0) { System.out.printf("epoch= %6.0f, error= %1.6f, %4.2f%%\n",
@@ -106,11 +354,136 @@ public class BackpropagationNet implements Serializable {
 
 		}
 
+		// a run stopped mid-epoch changed weights after the last endEpoch()
+		weightsVersion++;
+		// keep the last state, e.g. when stopTraining() interrupted the run
+		if (checkpointer != null)
+			checkpointer.checkpoint(this);
+
 		// System.out.printf("Training finished: epoch= %6.0f, error= %1.6f\n",
 		// epoch, trainingError);
 		// System.out.println("---------------------------");
 	}
 
+	/*
+	 * train on a data set streamed batch by batch, e.g. a file mapped by MappedDataSet, so that
+	 * the training set does not have to fit on the heap; each epoch reads all samples in order
+	 */
+	public void train(TrainingDataSet dataSet, int batchSize) {
+		int numInputs = inputNeuralLayer.getNeuronCount();
+		int numOutputs = outputNeuralLayer.getNeuronCount();
+		if (dataSet.getNumInputs() != numInputs
+				|| dataSet.getNumOutputs() != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+
+		long numSamples = dataSet.getSampleCount();
+		// an empty set would spin through epochs without ever reading a sample
+		if (numSamples < 1)
+			throw new RuntimeException("train: data set has no samples.");
+		batchSize = (int) Math.max(1, Math.min(batchSize, numSamples));
+
+		// all buffers live for the whole call, nothing is allocated per sample
+		double[] inputBatch = new double[batchSize * numInputs];
+		double[] expectedBatch = new double[batchSize * numOutputs];
+		double[] input = new double[numInputs];
+		double[] expected = new double[numOutputs];
+
+		epoch = 0;
+		converged = false;
+		numEpochSamples = numSamples;
+		while (!converged && epoch < this.maxEpoch && !isStopRequested()) {
+
+			double sumSquaredError = 0;
+			for (long start = 0; start < numSamples && !isStopRequested();
+					start += batchSize) {
+				int rows = (int) Math.min(batchSize, numSamples - start);
+				dataSet.readBatch(start, rows, inputBatch, expectedBatch);
+
+				for (int r = 0; r < rows; r++) {
+					System.arraycopy(inputBatch, r * numInputs, input, 0,
+							numInputs);
+					System.arraycopy(expectedBatch, r * numOutputs, expected,
+							0, numOutputs);
+					feedForward(input);
+					sumSquaredError += trainStep(expected);
+				}
+			}
+
+			if (!isStopRequested())
+				endEpoch(sumSquaredError, null);
+		}
+		// a run stopped mid-epoch changed weights after the last endEpoch()
+		weightsVersion++;
+	}
+
+	/*
+	 * train on batches prepared by the loader on its own thread, so that reading, shuffling and
+	 * noise of the next batch overlap with training on the current one; the loader is started
+	 * here and stopped on return
+	 */
+	public void train(PrefetchingBatchLoader loader) throws InterruptedException {
+		int numInputs = inputNeuralLayer.getNeuronCount();
+		int numOutputs = outputNeuralLayer.getNeuronCount();
+		TrainingDataSet dataSet = loader.getDataSet();
+		if (dataSet.getNumInputs() != numInputs
+				|| dataSet.getNumOutputs() != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+		if (dataSet.getSampleCount() < 1)
+			throw new RuntimeException("train: data set has no samples.");
+
+		double[] input = new double[numInputs];
+		double[] expected = new double[numOutputs];
+
+		epoch = 0;
+		converged = false;
+		numEpochSamples = dataSet.getSampleCount();
+		double sumSquaredError = 0;
+		loader.start();
+		try {
+			while (!converged && epoch < this.maxEpoch && !isStopRequested()) {
+				PrefetchingBatchLoader.Batch batch = loader.next();
+				double[] inputBatch = batch.getInputs();
+				double[] expectedBatch = batch.getOutputs();
+
+				for (int r = 0; r < batch.getRows() && !isStopRequested(); r++) {
+					System.arraycopy(inputBatch, r * numInputs, input, 0,
+							numInputs);
+					System.arraycopy(expectedBatch, r * numOutputs, expected,
+							0, numOutputs);
+					feedForward(input);
+					sumSquaredError += trainStep(expected);
+				}
+
+				if (batch.isEndOfEpoch() && !isStopRequested()) {
+					endEpoch(sumSquaredError, null);
+					sumSquaredError = 0;
+				}
+			}
+		} finally {
+			loader.stop();
+			// a run stopped mid-epoch changed weights after the last endEpoch()
+			weightsVersion++;
+		}
+	}
+
+	// inputTrainingSet is used for the stagnation detector's saturation check, may be null
+	private void endEpoch(double sumSquaredError, double[][] inputTrainingSet) {
+		epoch++;
+		// once per epoch rather than per sample, keeps the volatile write out of the inner loop
+		weightsVersion++;
+		epochSumSquaredError = sumSquaredError;
+		if ((int) epoch % convergenceCheckInterval == 0)
+			converged = getStopMetricError() <= this.globalError;
+		if (!converged && stagnationDetector != null)
+			stagnationDetector.onEpoch(this, inputTrainingSet);
+		if (checkpointer != null)
+			checkpointer.onEpoch(this);
+		if (trainingSession != null)
+			trainingSession.onEpoch();
+	}
+
 	public void feedForward(double[] input) {
 
 		for (int i = 0; i < neuralLayers.size(); i++) {
@@ -120,20 +493,263 @@ public class BackpropagationNet implements Serializable {
 
 	}
 
-	public void backPropagation(double[] expected) {
+	/*
+	 * snapshot of the current weights for inference only, later training does not affect it;
+	 * smaller and faster than the net itself and usable from any number of threads at once
+	 */
+	public FrozenNet freeze() {
+		return freeze(true);
+	}
+
+	// unroll: use a fully unrolled forward pass if the topology has one, see UnrolledKernel
+	public FrozenNet freeze(boolean unroll) {
+		return new FrozenNet(this, unroll);
+	}
+
+	/*
+	 * batched inference of rows sampleIndices[from..to) (rows from..to if sampleIndices is null)
+	 * into outputs[0..to-from), the rows go through each layer as one [rows x n] matrix product;
+	 * unlike feedForward() no layer state is touched, so several threads may call this at once
+	 */
+	public void computeOutputs(double[][] inputs, int[] sampleIndices,
+			int from, int to, double[][] outputs) {
+		computeOutputs(inputs, sampleIndices, from, to, outputs,
+				new double[getBatchScratchSize(to - from)]);
+	}
+
+	/*
+	 * as above with the caller's scratch[], so that repeated calls allocate nothing; a scratch
+	 * of getBatchScratchSize(rows) values takes up to rows rows per matrix product
+	 */
+	public void computeOutputs(double[][] inputs, int[] sampleIndices,
+			int from, int to, double[][] outputs, double[] scratch) {
+
+		int maxWidth = getMaxOutputWidth();
+		int batchSize = Math.min(Math.min(BATCH_SIZE, to - from),
+				scratch.length / (2 * maxWidth));
+		if (batchSize < 1 && from < to)
+			throw new RuntimeException(
+					"computeOutputs: scratch buffer too small.");
+		// alternate between the two halves of scratch[]
+		int batch = 0;
+		int nextBatch = batchSize * maxWidth;
+
+		for (int start = from; start < to; start += batchSize) {
+			int rows = Math.min(batchSize, to - start);
+
+			// input layer, row r = { x0, x1, .., 1.0 (bias) }
+			int width = inputNeuralLayer.getOutputWidth();
+			for (int r = 0; r < rows; r++) {
+				double[] input = inputs[(sampleIndices == null) ? start + r
+						: sampleIndices[start + r]];
+				System.arraycopy(input, 0, scratch, batch + r * width,
+						input.length);
+				if (width > input.length)
+					scratch[batch + r * width + input.length] = 1.0;
+			}
+
+			for (int i = 1; i < neuralLayers.size(); i++) {
+				NeuralLayer layer = neuralLayers.get(i);
+				layer.computeBatchOutputs(scratch, batch, width, rows, scratch,
+						nextBatch);
+				width = layer.getOutputWidth();
+				int swap = batch;
+				batch = nextBatch;
+				nextBatch = swap;
+			}
+
+			int numOutputs = outputNeuralLayer.getNeuronCount();
+			for (int r = 0; r < rows; r++)
+				System.arraycopy(scratch, batch + r * width, outputs[start
+						- from + r], 0, numOutputs);
+		}
+	}
+
+	// values of scratch[] computeOutputs() needs to take the given number of rows at once
+	public int getBatchScratchSize(int rows) {
+		return 2 * Math.max(1, Math.min(BATCH_SIZE, rows)) * getMaxOutputWidth();
+	}
+
+	private int getMaxOutputWidth() {
+		int maxWidth = 0;
+		for (int i = 0; i < neuralLayers.size(); i++)
+			maxWidth = Math.max(maxWidth, neuralLayers.get(i).getOutputWidth());
+		return maxWidth;
+	}
+
+	/*
+	 * mean squared error of every output over all samples into mse[], e.g. per task of a net
+	 * trained on stacked truth tables; weights and layer state are left untouched
+	 */
+	public void computeOutputMSE(double[][] inputs, double[][] expected,
+			double[] mse) {
+		int numOutputs = outputNeuralLayer.getNeuronCount();
+		double[][] outputs = new double[Math.min(BATCH_SIZE, inputs.length)][numOutputs];
+
+		Arrays.fill(mse, 0, numOutputs, 0);
+		for (int start = 0; start < inputs.length; start += outputs.length) {
+			int end = Math.min(start + outputs.length, inputs.length);
+			computeOutputs(inputs, null, start, end, outputs);
+			for (int r = 0; r < end - start; r++) {
+				for (int k = 0; k < numOutputs; k++) {
+					double offset = expected[start + r][k] - outputs[r][k];
+					mse[k] += offset * offset;
+				}
+			}
+		}
+		for (int k = 0; k < numOutputs; k++)
+			mse[k] /= inputs.length;
+	}
+
+	// returns the sample's sum of squared output errors, taken from the output deltas pass
+	public double backPropagation(double[] expected) {
+		double sumSquaredError = trainStep(expected);
+		// a step outside train() has no epoch end to publish it
+		weightsVersion++;
+		return sumSquaredError;
+	}
+
+	// backPropagation() without the version bump, train() bumps it once per epoch instead
+	private double trainStep(double[] expected) {
 
 		int outputLayerIndex = neuralLayers.size() - 1;
+		double sumSquaredError = 0;
 
 		for (int i = outputLayerIndex; i > 0; i--) {
-			neuralLayers.get(i).computeLayerDeltas(
+			sumSquaredError += neuralLayers.get(i).computeLayerDeltas(
 					i == outputLayerIndex ? expected : neuralLayers.get(i + 1));
 			neuralLayers.get(i).updateWeights(neuralLayers.get(i - 1),
 					learningRate, momentum);
 		}
 
-		trainingError = neuralLayers.get(outputLayerIndex)
-				.computeTrainingError(expected);
+		trainingError = sumSquaredError / 2.0;
+
+		return sumSquaredError;
+	}
+
+	/*
+	 * accumulate the gradient of the summed training error over the whole training set into
+	 * gradient[], laid out like getParameters(); weights are left untouched, returns
+	 * sum( 1/2 * sum( (expected[k] - output[k])^2 ) ) over all samples
+	 */
+	public double computeGradient(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, double[] gradient) {
+
+		int outputLayerIndex = neuralLayers.size() - 1;
+		double sumError = 0;
+
+		Arrays.fill(gradient, 0);
+		for (int n = 0; n < inputTrainingSet.length; n++) {
+			feedForward(inputTrainingSet[n]);
+
+			int offset = 0;
+			for (int i = outputLayerIndex; i > 0; i--) {
+				neuralLayers.get(i).computeLayerDeltas(
+						i == outputLayerIndex ? expectedTrainingSet[n]
+								: neuralLayers.get(i + 1));
+			}
+			for (int i = 1; i <= outputLayerIndex; i++) {
+				neuralLayers.get(i).accumulateGradient(neuralLayers.get(i - 1),
+						gradient, offset);
+				offset += neuralLayers.get(i).getWeightCount();
+			}
+
+			sumError += neuralLayers.get(outputLayerIndex).computeTrainingError(
+					expectedTrainingSet[n]);
+		}
+
+		return sumError;
+	}
+
+	// total number of weights over all layers, i.e. the length of the flattened parameter vector
+	public int getParameterCount() {
+		return parameters.length;
+	}
+
+	// flatten all layer weight matrices into params[], layer by layer, row by row
+	public void getParameters(double[] params) {
+		System.arraycopy(parameters, 0, params, 0, parameters.length);
+	}
+
+	// resets the momentum history as it no longer applies
+	public void setParameters(double[] params) {
+		System.arraycopy(params, 0, parameters, 0, parameters.length);
+		Arrays.fill(changedParameters, 0);
+		weightsVersion++;
+	}
+
+	// weights as getParameters(), followed by the momentum history in the same layout
+	void copyTrainingState(double[] values) {
+		System.arraycopy(parameters, 0, values, 0, parameters.length);
+		System.arraycopy(changedParameters, 0, values, parameters.length,
+				changedParameters.length);
+	}
+
+	void restoreTrainingState(double[] values, double epoch, long shuffleState) {
+		System.arraycopy(values, 0, parameters, 0, parameters.length);
+		System.arraycopy(values, parameters.length, changedParameters, 0,
+				changedParameters.length);
+		this.epoch = epoch;
+		shuffleRandom.setState(shuffleState);
+		weightsVersion++;
+	}
+
+	void setTrainingSession(TrainingSession trainingSession) {
+		this.trainingSession = trainingSession;
+	}
 
+	// samples per epoch of the current or last train() call
+	long getNumEpochSamples() {
+		return numEpochSamples;
+	}
+
+	long getShuffleState() {
+		return shuffleRandom.getState();
+	}
+
+	// checkpoint every run of train(), null turns checkpoints off
+	public void setCheckpointer(TrainingCheckpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	// draw fresh weights for all layers in place, the layer structure is kept
+	public void reinitializeWeights() {
+		for (int i = 0; i < neuralLayers.size(); i++)
+			neuralLayers.get(i).reinitializeWeights(random);
+		weightsVersion++;
+	}
+
+	public void perturbWeights(double scale) {
+		for (int i = 0; i < neuralLayers.size(); i++)
+			neuralLayers.get(i).perturbWeights(random, scale);
+		weightsVersion++;
+	}
+
+	/*
+	 * fraction of hidden sigmoid outputs within margin of 0.0 or 1.0 over the given samples,
+	 * saturated neurons have a near zero derivative and hardly learn anymore
+	 */
+	public double computeHiddenSaturation(double[][] inputs, double margin) {
+		int saturated = 0;
+		int total = 0;
+
+		for (int n = 0; n < inputs.length; n++) {
+			feedForward(inputs[n]);
+			for (int i = 1; i < neuralLayers.size() - 1; i++) {
+				NeuralLayer layer = neuralLayers.get(i);
+				if (!(layer.getActivationFunction() instanceof SigmoidActivation))
+					continue;
+				saturated += layer.countSaturatedOutputs(margin);
+				total += layer.getNeuronCount();
+			}
+		}
+
+		return (total == 0) ? 0 : 1.0 * saturated / total;
+	}
+
+	// checked at the end of every epoch which did not converge, null to disable
+	public void setStagnationDetector(StagnationDetector stagnationDetector) {
+		this.stagnationDetector = stagnationDetector;
 	}
 
 	public double[] getOutputResults() {
@@ -144,8 +760,130 @@ public class BackpropagationNet implements Serializable {
 		return (int) epoch;
 	}
 
+	// error of the most recent training sample
+	public double getTrainingError() {
+		return trainingError;
+	}
+
+	// sum of squared errors accumulated over the last completed epoch
+	public double getEpochSSE() {
+		return epochSumSquaredError;
+	}
+
+	public double getEpochMSE() {
+		return epochSumSquaredError
+				/ (numEpochSamples * outputNeuralLayer.getNeuronCount());
+	}
+
+	public double getStopMetricError() {
+		switch (stopMetric) {
+		case STOP_METRIC_SAMPLE_ERROR:
+			return trainingError;
+		case STOP_METRIC_SSE:
+			return getEpochSSE();
+		default:
+			return getEpochMSE();
+		}
+	}
+
+	/*
+	 * visit the samples of train(double[][], ..) in a new random order every epoch; only an int
+	 * permutation is shuffled, the training set itself is never copied
+	 */
+	public void setShuffle(boolean shuffle) {
+		this.shuffle = shuffle;
+	}
+
+	public boolean isShuffle() {
+		return shuffle;
+	}
+
+	public void setStopMetric(int stopMetric) {
+		if (stopMetric < STOP_METRIC_SAMPLE_ERROR
+				|| stopMetric > STOP_METRIC_MSE)
+			throw new IllegalArgumentException("setStopMetric: unknown metric "
+					+ stopMetric);
+		this.stopMetric = stopMetric;
+	}
+
+	// compare the stop metric against globalError only every n epochs
+	public void setConvergenceCheckInterval(int epochs) {
+		if (epochs < 1)
+			throw new IllegalArgumentException(
+					"setConvergenceCheckInterval: interval must be >= 1");
+		this.convergenceCheckInterval = epochs;
+	}
+
+	// true if the last train() call ended because the stop metric reached globalError
+	public boolean hasConverged() {
+		return converged;
+	}
+
+	/*
+	 * changes at every epoch end and at the end of every train() run, on every direct
+	 * backPropagation() call, and whenever the weights are set, restored or re-randomized;
+	 * within an epoch of train() in progress it may lag behind the weights
+	 */
+	public long getWeightsVersion() {
+		return weightsVersion;
+	}
+
+	public double getGlobalError() {
+		return globalError;
+	}
+
+	public int getMaxEpoch() {
+		return (int) maxEpoch;
+	}
+
+	// epochs allowed per train() call, weights are kept between calls so training can continue
+	public void setMaxEpoch(double epoch) {
+		this.maxEpoch = epoch;
+	}
+
+	public int getNumInputNeurons() {
+		return inputNeuralLayer.getNeuronCount();
+	}
+
+	// neurons of the first hidden layer, 0 if the inputs feed the output layer directly
+	public int getNumHiddenNeurons() {
+		return (hiddenNeuralLayer == null) ? 0 : hiddenNeuralLayer
+				.getNeuronCount();
+	}
+
+	public int getNumOutputNeurons() {
+		return outputNeuralLayer.getNeuronCount();
+	}
+
+	// number of layers including the input and output layers
+	public int getLayerCount() {
+		return neuralLayers.size();
+	}
+
+	public int getLayerSize(int index) {
+		return neuralLayers.get(index).getNeuronCount();
+	}
+
+	NeuralLayer getNeuralLayer(int index) {
+		return neuralLayers.get(index);
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public double getMomentum() {
+		return momentum;
+	}
+
 	public void stopTraining() {
 		forceStop = true;
 	}
 
+	// stopTraining() or a stop of the session currently running this net
+	boolean isStopRequested() {
+		return forceStop
+				|| (trainingSession != null && trainingSession.isStopRequested());
+	}
+
 }
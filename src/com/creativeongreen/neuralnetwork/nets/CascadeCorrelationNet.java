@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* Cascade-correlation net (Fahlman and Lebiere): starts without hidden units and adds one
+* sigmoid unit at a time, each reading the inputs and all earlier units, until the outputs reach
+* the global error; the number of hidden units no longer has to be guessed up front
+* 
+*/
+public class CascadeCorrelationNet {
+
+	private static final String LOG_TAG = "NN_CascadeCorrelationNet";
+
+	// a training phase ends when its error improved by less than this share over PATIENCE epochs
+	private static final double PATIENCE_CHANGE = 0.01;
+	private static final int PATIENCE = 50;
+
+	// added to the sigmoid derivative in training, so that saturated wrong outputs still learn
+	private static final double SIGMOID_PRIME_OFFSET = 0.1;
+
+	// iRprop- step sizes of the candidate training
+	private static final double RPROP_INCREASE = 1.2;
+	private static final double RPROP_DECREASE = 0.5;
+	private static final double RPROP_INITIAL_STEP = 0.1;
+	private static final double RPROP_MAX_STEP = 50;
+	private static final double RPROP_MIN_STEP = 1e-6;
+
+	private final int numInputs;
+	private final int numOutputs;
+	private final int maxHiddenUnits;
+	// features: inputs, bias, then the hidden units in the order they were added
+	private final int maxFeatures;
+	private final ExecutorService executor;
+	private final Random random;
+
+	// unit u reads features [0, numInputs + 1 + u) with weights at getUnitOffset(u)
+	private final double[] unitWeights;
+	// output k reads all features with weights at [k * maxFeatures ..]
+	private final double[] outputWeights;
+	private final double[] changedOutputWeights;
+	private int hiddenUnitCount;
+
+	private int candidatePoolSize = 8;
+	private double learningRate = 0.5;
+	private double momentum = 0.9;
+	private double globalError = 0.001;
+	private int maxOutputEpochs = 2000;
+	private int maxCandidateEpochs = 500;
+
+	private double epochMSE = Double.MAX_VALUE;
+	private boolean converged = false;
+	private int outputEpochs;
+	private int candidateEpochs;
+	private volatile boolean forceStop = false;
+
+	// per thread feature buffer of computeOutputs()
+	private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+	// executor null trains the candidate pool on the calling thread
+	public CascadeCorrelationNet(int numInputNeurons, int numOutputNeurons,
+			int maxHiddenUnits, ExecutorService executor, long seed) {
+		if (numInputNeurons < 1 || numOutputNeurons < 1)
+			throw new IllegalArgumentException(
+					"CascadeCorrelationNet: inputs and outputs must be >= 1.");
+		if (maxHiddenUnits < 0)
+			throw new IllegalArgumentException(
+					"CascadeCorrelationNet: max. hidden units must be >= 0.");
+
+		this.numInputs = numInputNeurons;
+		this.numOutputs = numOutputNeurons;
+		this.maxHiddenUnits = maxHiddenUnits;
+		this.maxFeatures = numInputs + 1 + maxHiddenUnits;
+		this.executor = executor;
+		this.random = new Random(seed);
+
+		this.unitWeights = new double[getUnitOffset(maxHiddenUnits)];
+		this.outputWeights = new double[numOutputs * maxFeatures];
+		this.changedOutputWeights = new double[numOutputs * maxFeatures];
+	}
+
+	private int getUnitOffset(int unit) {
+		return unit * (numInputs + 1) + unit * (unit - 1) / 2;
+	}
+
+	/*
+	 * grow the net on the training set: train the output weights, and while the MSE is above
+	 * the global error add the best unit of a freshly trained candidate pool and train again;
+	 * every unit's outputs are computed once when it is added and cached, frozen units are
+	 * never evaluated again during training
+	 */
+	public void train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) throws InterruptedException {
+		if (inputTrainingSet[0].length != numInputs
+				|| expectedTrainingSet[0].length != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+
+		int numSamples = inputTrainingSet.length;
+		// features of sample p at [p * maxFeatures ..]
+		double[] features = new double[numSamples * maxFeatures];
+		for (int p = 0; p < numSamples; p++) {
+			System.arraycopy(inputTrainingSet[p], 0, features, p * maxFeatures,
+					numInputs);
+			features[p * maxFeatures + numInputs] = 1.0;
+		}
+		double[] residuals = new double[numSamples * numOutputs];
+
+		hiddenUnitCount = 0;
+		// weights of the inputs and bias only, units get theirs when added
+		Arrays.fill(outputWeights, 0);
+		for (int k = 0; k < numOutputs; k++)
+			for (int f = 0; f <= numInputs; f++)
+				outputWeights[k * maxFeatures + f] = 2.0 * random.nextDouble() - 1.0;
+		Arrays.fill(changedOutputWeights, 0);
+		outputEpochs = 0;
+		candidateEpochs = 0;
+		converged = false;
+
+		ArrayList<Candidate> pool = new ArrayList<Candidate>();
+		for (int c = 0; c < candidatePoolSize; c++)
+			pool.add(new Candidate(numSamples, features, residuals));
+
+		try {
+			while (!forceStop) {
+				trainOutputs(features, expectedTrainingSet, numSamples);
+				converged = epochMSE <= globalError;
+				if (converged || hiddenUnitCount == maxHiddenUnits || forceStop)
+					break;
+
+				computeResiduals(features, expectedTrainingSet, numSamples,
+						residuals);
+				for (int c = 0; c < pool.size(); c++)
+					pool.get(c).reset(random);
+				trainCandidates(pool);
+				// candidates cut short by a stop must not be frozen into the net
+				if (forceStop)
+					break;
+
+				Candidate best = pool.get(0);
+				for (int c = 1; c < pool.size(); c++)
+					if (pool.get(c).score > best.score)
+						best = pool.get(c);
+				addUnit(best.weights, features, numSamples);
+			}
+		} finally {
+			// cleared once the run is over, so a stop issued just before train() is not lost
+			forceStop = false;
+		}
+	}
+
+	/*
+	 * online gradient descent with momentum on the output weights over the cached features,
+	 * until the epoch MSE reaches the global error or stagnates
+	 */
+	private void trainOutputs(double[] features, double[][] expected,
+			int numSamples) {
+		int numFeatures = numInputs + 1 + hiddenUnitCount;
+		double lastCheck = Double.MAX_VALUE;
+
+		for (int epoch = 1; epoch <= maxOutputEpochs && !forceStop; epoch++) {
+			double sumSquaredError = 0;
+			for (int p = 0; p < numSamples; p++) {
+				int sample = p * maxFeatures;
+				for (int k = 0; k < numOutputs; k++) {
+					int row = k * maxFeatures;
+					double sum = 0;
+					for (int f = 0; f < numFeatures; f++)
+						sum += features[sample + f] * outputWeights[row + f];
+					double output = sigmoid(sum);
+					double offset = expected[p][k] - output;
+					sumSquaredError += offset * offset;
+
+					double rate = learningRate * offset
+							* (output * (1.0 - output) + SIGMOID_PRIME_OFFSET);
+					for (int f = 0; f < numFeatures; f++) {
+						double deltaWeight = rate * features[sample + f];
+						outputWeights[row + f] += deltaWeight + momentum
+								* changedOutputWeights[row + f];
+						changedOutputWeights[row + f] = deltaWeight;
+					}
+				}
+			}
+			outputEpochs++;
+			epochMSE = sumSquaredError / (numSamples * numOutputs);
+
+			if (epochMSE <= globalError)
+				break;
+			if (epoch % PATIENCE == 0) {
+				if (epochMSE > (1 - PATIENCE_CHANGE) * lastCheck)
+					break;
+				lastCheck = epochMSE;
+			}
+		}
+	}
+
+	// residuals[p * numOutputs + k] = error of output k on sample p minus its mean over samples
+	private void computeResiduals(double[] features, double[][] expected,
+			int numSamples, double[] residuals) {
+		int numFeatures = numInputs + 1 + hiddenUnitCount;
+		for (int p = 0; p < numSamples; p++)
+			for (int k = 0; k < numOutputs; k++) {
+				double sum = 0;
+				for (int f = 0; f < numFeatures; f++)
+					sum += features[p * maxFeatures + f]
+							* outputWeights[k * maxFeatures + f];
+				residuals[p * numOutputs + k] = sigmoid(sum) - expected[p][k];
+			}
+		for (int k = 0; k < numOutputs; k++) {
+			double mean = 0;
+			for (int p = 0; p < numSamples; p++)
+				mean += residuals[p * numOutputs + k];
+			mean /= numSamples;
+			for (int p = 0; p < numSamples; p++)
+				residuals[p * numOutputs + k] -= mean;
+		}
+	}
+
+	private void trainCandidates(ArrayList<Candidate> pool)
+			throws InterruptedException {
+		if (executor == null) {
+			for (int c = 0; c < pool.size(); c++)
+				pool.get(c).call();
+		} else {
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+			try {
+				for (int c = 0; c < pool.size(); c++)
+					futures.add(executor.submit(pool.get(c)));
+				for (int c = 0; c < futures.size(); c++)
+					futures.get(c).get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("train: candidate training failed",
+						e.getCause());
+			} finally {
+				for (int c = 0; c < futures.size(); c++)
+					futures.get(c).cancel(true);
+			}
+		}
+		for (int c = 0; c < pool.size(); c++)
+			candidateEpochs += pool.get(c).epochs;
+	}
+
+	// freeze weights as the next hidden unit and cache its output for every sample
+	private void addUnit(double[] weights, double[] features, int numSamples) {
+		int numFeatures = numInputs + 1 + hiddenUnitCount;
+		System.arraycopy(weights, 0, unitWeights,
+				getUnitOffset(hiddenUnitCount), numFeatures);
+		for (int p = 0; p < numSamples; p++) {
+			int sample = p * maxFeatures;
+			double sum = 0;
+			for (int f = 0; f < numFeatures; f++)
+				sum += features[sample + f] * weights[f];
+			features[sample + numFeatures] = sigmoid(sum);
+		}
+		// the new unit starts without influence on the outputs
+		for (int k = 0; k < numOutputs; k++) {
+			outputWeights[k * maxFeatures + numFeatures] = 0;
+			changedOutputWeights[k * maxFeatures + numFeatures] = 0;
+		}
+		hiddenUnitCount++;
+	}
+
+	/*
+	 * a candidate unit reading the current features, trained to maximize
+	 * S = sum over outputs k of | sum over samples p of V(p) * residual(p, k) | where V is its
+	 * output; all buffers live as long as the training run
+	 */
+	private class Candidate implements Callable<Void> {
+		private final int numSamples;
+		private final double[] features;
+		private final double[] residuals;
+		private final double[] weights = new double[maxFeatures];
+		private final double[] slopes = new double[maxFeatures];
+		private final double[] previousSlopes = new double[maxFeatures];
+		private final double[] steps = new double[maxFeatures];
+		private final double[] values;
+		private final double[] correlations = new double[numOutputs];
+		private double score;
+		// weight updates actually run in the last call()
+		private int epochs;
+
+		Candidate(int numSamples, double[] features, double[] residuals) {
+			this.numSamples = numSamples;
+			this.features = features;
+			this.residuals = residuals;
+			this.values = new double[numSamples];
+		}
+
+		// new random weights, drawn on the training thread so that runs are reproducible
+		void reset(Random random) {
+			int numFeatures = numInputs + 1 + hiddenUnitCount;
+			for (int f = 0; f < numFeatures; f++)
+				weights[f] = 2.0 * random.nextDouble() - 1.0;
+			Arrays.fill(previousSlopes, 0);
+			Arrays.fill(steps, RPROP_INITIAL_STEP);
+			score = 0;
+			epochs = 0;
+		}
+
+		@Override
+		public Void call() {
+			int numFeatures = numInputs + 1 + hiddenUnitCount;
+			double lastCheck = 0;
+
+			for (int epoch = 1; epoch <= maxCandidateEpochs && !forceStop; epoch++) {
+				score = computeScore(numFeatures);
+				if (epoch % PATIENCE == 0) {
+					if (score < (1 + PATIENCE_CHANGE) * lastCheck)
+						break;
+					lastCheck = score;
+				}
+
+				// dS/dw(f) = sum over p of ( sum over k of sign(corr(k)) * residual(p, k) )
+				// * V'(p) * feature(p, f)
+				Arrays.fill(slopes, 0, numFeatures, 0);
+				for (int p = 0; p < numSamples; p++) {
+					double error = 0;
+					for (int k = 0; k < numOutputs; k++)
+						error += (correlations[k] >= 0 ? 1 : -1)
+								* residuals[p * numOutputs + k];
+					double value = values[p];
+					double factor = error * value * (1.0 - value);
+					int sample = p * maxFeatures;
+					for (int f = 0; f < numFeatures; f++)
+						slopes[f] += factor * features[sample + f];
+				}
+
+				// iRprop-: per weight step, grown while the slope keeps its sign
+				for (int f = 0; f < numFeatures; f++) {
+					double change = slopes[f] * previousSlopes[f];
+					if (change > 0)
+						steps[f] = Math.min(steps[f] * RPROP_INCREASE,
+								RPROP_MAX_STEP);
+					else if (change < 0) {
+						steps[f] = Math.max(steps[f] * RPROP_DECREASE,
+								RPROP_MIN_STEP);
+						slopes[f] = 0;
+					}
+					if (slopes[f] > 0)
+						weights[f] += steps[f];
+					else if (slopes[f] < 0)
+						weights[f] -= steps[f];
+					previousSlopes[f] = slopes[f];
+				}
+				epochs = epoch;
+			}
+			score = computeScore(numFeatures);
+			return null;
+		}
+
+		// values[] for the current weights, correlations[] and their absolute sum S
+		private double computeScore(int numFeatures) {
+			Arrays.fill(correlations, 0);
+			for (int p = 0; p < numSamples; p++) {
+				int sample = p * maxFeatures;
+				double sum = 0;
+				for (int f = 0; f < numFeatures; f++)
+					sum += features[sample + f] * weights[f];
+				double value = sigmoid(sum);
+				values[p] = value;
+				for (int k = 0; k < numOutputs; k++)
+					correlations[k] += value * residuals[p * numOutputs + k];
+			}
+			double s = 0;
+			for (int k = 0; k < numOutputs; k++)
+				s += Math.abs(correlations[k]);
+			return s;
+		}
+	}
+
+	// same expression as SigmoidActivation
+	private static double sigmoid(double x) {
+		return 1.0 / (1 + Math.exp(-1.0 * x));
+	}
+
+	/*
+	 * output[0..numOutputs) for input[]; only reads the weights, so several threads may call
+	 * this at once when no training is running
+	 */
+	public void computeOutputs(double[] input, double[] output) {
+		int numFeatures = numInputs + 1 + hiddenUnitCount;
+		double[] features = scratch.get();
+		if (features == null) {
+			features = new double[maxFeatures];
+			scratch.set(features);
+		}
+		System.arraycopy(input, 0, features, 0, numInputs);
+		features[numInputs] = 1.0;
+
+		for (int u = 0; u < hiddenUnitCount; u++) {
+			int count = numInputs + 1 + u;
+			int offset = getUnitOffset(u);
+			double sum = 0;
+			for (int f = 0; f < count; f++)
+				sum += features[f] * unitWeights[offset + f];
+			features[count] = sigmoid(sum);
+		}
+
+		for (int k = 0; k < numOutputs; k++) {
+			int row = k * maxFeatures;
+			double sum = 0;
+			for (int f = 0; f < numFeatures; f++)
+				sum += features[f] * outputWeights[row + f];
+			output[k] = sigmoid(sum);
+		}
+	}
+
+	public void setCandidatePoolSize(int candidatePoolSize) {
+		if (candidatePoolSize < 1)
+			throw new IllegalArgumentException(
+					"setCandidatePoolSize: pool size must be >= 1.");
+		this.candidatePoolSize = candidatePoolSize;
+	}
+
+	// of the output weights
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	public void setMomentum(double momentum) {
+		this.momentum = momentum;
+	}
+
+	public void setGlobalError(double globalError) {
+		this.globalError = globalError;
+	}
+
+	// epoch limits of one output training and of one candidate training
+	public void setMaxEpochs(int maxOutputEpochs, int maxCandidateEpochs) {
+		this.maxOutputEpochs = maxOutputEpochs;
+		this.maxCandidateEpochs = maxCandidateEpochs;
+	}
+
+	public int getHiddenUnitCount() {
+		return hiddenUnitCount;
+	}
+
+	// MSE over all samples and outputs of the last output training epoch
+	public double getEpochMSE() {
+		return epochMSE;
+	}
+
+	public boolean hasConverged() {
+		return converged;
+	}
+
+	// epochs spent on the output weights in the last train() call
+	public int getOutputEpochs() {
+		return outputEpochs;
+	}
+
+	// epochs spent on all candidates in the last train() call
+	public int getCandidateEpochs() {
+		return candidateEpochs;
+	}
+
+	public int getNumInputNeurons() {
+		return numInputs;
+	}
+
+	public int getNumOutputNeurons() {
+		return numOutputs;
+	}
+
+	// ends the train() run under way, or the next one at once if none is
+	public void stopTraining() {
+		forceStop = true;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* k-fold cross-validation, the k fold nets train concurrently on a caller supplied (bounded)
+* thread pool; all folds share the one training set and only hold row indices of it
+* 
+*/
+public class CrossValidation {
+
+	private static final String LOG_TAG = "NN_CrossValidation";
+
+	private final ExecutorService executor;
+	private final int numFolds;
+
+	private final int numHiddenNeurons;
+	private final double learningRate;
+	private final double momentum;
+	private final double maxEpoch;
+	private final double globalError;
+
+	private final ArrayList<BackpropagationNet> nets = new ArrayList<BackpropagationNet>();
+	// set by stopTraining(), reaches the folds created after the stop as well
+	private volatile boolean stopRequested = false;
+
+	// per fold results of the last run()
+	private double[] foldErrors;
+	private double[] foldAccuracies;
+
+	public CrossValidation(ExecutorService executor, int numFolds,
+			int numHiddenNeurons, double learningRate, double momentum,
+			double epoch, double globalError) {
+		if (numFolds < 2)
+			throw new RuntimeException(
+					"CrossValidation: number of folds must be >= 2.");
+
+		this.executor = executor;
+		this.numFolds = numFolds;
+		this.numHiddenNeurons = numHiddenNeurons;
+		this.learningRate = learningRate;
+		this.momentum = momentum;
+		this.maxEpoch = epoch;
+		this.globalError = globalError;
+	}
+
+	/*
+	 * shuffle rows with seed, train fold k's net (seeded seed + 1 + k) on all other folds and
+	 * evaluate it on fold k; returns the mean held-out MSE
+	 */
+	public double run(final double[][] inputs, final double[][] expected,
+			long seed) throws InterruptedException {
+		final int numSamples = inputs.length;
+		if (numSamples < numFolds)
+			throw new RuntimeException("run: less samples than folds.");
+
+		// one shuffled order of all rows, fold k is order[k * n / K .. (k + 1) * n / K)
+		final int[] order = new int[numSamples];
+		Random random = new Random(seed);
+		for (int i = 0; i < numSamples; i++)
+			order[i] = i;
+		for (int i = numSamples - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+
+		foldErrors = new double[numFolds];
+		foldAccuracies = new double[numFolds];
+		synchronized (nets) {
+			nets.clear();
+		}
+
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int k = 0; k < numFolds; k++) {
+			final int fold = k;
+			final int from = (int) ((long) k * numSamples / numFolds);
+			final int to = (int) ((long) (k + 1) * numSamples / numFolds);
+			final BackpropagationNet net = new BackpropagationNet(
+					inputs[0].length, numHiddenNeurons, expected[0].length,
+					learningRate, momentum, maxEpoch, globalError, seed + 1
+							+ k);
+			synchronized (nets) {
+				// a stop issued while folds are still being set up ends these as well
+				if (stopRequested)
+					net.stopTraining();
+				nets.add(net);
+			}
+
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					int[] trainIndices = new int[numSamples - (to - from)];
+					System.arraycopy(order, 0, trainIndices, 0, from);
+					System.arraycopy(order, to, trainIndices, from, numSamples
+							- to);
+
+					net.train(inputs, expected, trainIndices);
+					evaluate(net, inputs, expected, order, from, to, fold);
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (int k = 0; k < futures.size(); k++)
+				futures.get(k).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("run: fold failed", e.getCause());
+		} finally {
+			for (int k = 0; k < futures.size(); k++)
+				futures.get(k).cancel(true);
+			// cleared once the run is over, so a stop issued just before run() is not lost
+			synchronized (nets) {
+				stopRequested = false;
+			}
+		}
+
+		return getMeanError();
+	}
+
+	// held-out MSE and accuracy (outputs thresholded at 0.5) of rows order[from..to)
+	private void evaluate(BackpropagationNet net, double[][] inputs,
+			double[][] expected, int[] order, int from, int to, int fold) {
+		int numOutputs = expected[0].length;
+		double[][] outputs = new double[to - from][numOutputs];
+		net.computeOutputs(inputs, order, from, to, outputs);
+
+		double sumSquaredError = 0;
+		int correct = 0;
+		for (int r = 0; r < to - from; r++) {
+			double[] target = expected[order[from + r]];
+			boolean hit = true;
+			for (int k = 0; k < numOutputs; k++) {
+				double offset = target[k] - outputs[r][k];
+				sumSquaredError += offset * offset;
+				if ((outputs[r][k] >= 0.5) != (target[k] >= 0.5))
+					hit = false;
+			}
+			if (hit)
+				correct++;
+		}
+
+		foldErrors[fold] = sumSquaredError / ((to - from) * numOutputs);
+		foldAccuracies[fold] = 1.0 * correct / (to - from);
+	}
+
+	// ends the run() under way, or the next one at once if none is
+	public void stopTraining() {
+		synchronized (nets) {
+			stopRequested = true;
+			for (int k = 0; k < nets.size(); k++)
+				nets.get(k).stopTraining();
+		}
+	}
+
+	public double[] getFoldErrors() {
+		return foldErrors;
+	}
+
+	public double[] getFoldAccuracies() {
+		return foldAccuracies;
+	}
+
+	public double getMeanError() {
+		return mean(foldErrors);
+	}
+
+	public double getErrorStandardDeviation() {
+		double mean = mean(foldErrors);
+		double sum = 0;
+		for (int k = 0; k < foldErrors.length; k++)
+			sum += (foldErrors[k] - mean) * (foldErrors[k] - mean);
+		return Math.sqrt(sum / foldErrors.length);
+	}
+
+	public double getMeanAccuracy() {
+		return mean(foldAccuracies);
+	}
+
+	// the net trained without fold k
+	public BackpropagationNet getNet(int fold) {
+		synchronized (nets) {
+			return nets.get(fold);
+		}
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (int k = 0; k < values.length; k++)
+			sum += values[k];
+		return sum / values.length;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.Arrays;
+
+import com.creativeongreen.neuralnetwork.activation.ActivationFunction;
+import com.creativeongreen.neuralnetwork.activation.HyperbolicTangentActivation;
+import com.creativeongreen.neuralnetwork.activation.LinearActivation;
+import com.creativeongreen.neuralnetwork.activation.SigmoidActivation;
+import com.creativeongreen.neuralnetwork.util.TrainingDataSet;
+import com.creativeongreen.neuralnetwork.util.WeightMatrix;
+
+/**
+*
+* @author creativeongreen
+* 
+* Extreme learning machine: keeps the random weights of all layers but the output layer and
+* fits the output layer in closed form, regularized least squares over the last hidden layer's
+* outputs, in one streamed pass over the training set; the kept weights are whatever the net
+* was built or reinitialized with, NeuralLayer draws them uniform in (-1, 1) from the net's Random
+* 
+*/
+public class ElmTrainer {
+
+	private static final String LOG_TAG = "NN_ElmTrainer";
+
+	// ridge per training row added to the diagonal of H'H, keeps the solve stable for redundant
+	// hidden neurons
+	public static final double DEFAULT_REGULARIZATION = 1e-6;
+	// 0 / 1 targets of a sigmoid output are fitted as margin / 1 - margin, the inverse of the
+	// activation is infinite at 0 and 1
+	public static final double DEFAULT_TARGET_MARGIN = 0.05;
+
+	private static final int OUTPUT_SIGMOID = 0;
+	private static final int OUTPUT_TANH = 1;
+	private static final int OUTPUT_LINEAR = 2;
+
+	// rows per batched forward pass
+	private static final int BATCH_SIZE = 256;
+
+	private final BackpropagationNet net;
+	private final NeuralLayer hiddenLayer;
+	private final int outputActivation;
+	private final int numInputs;
+	private final int numOutputs;
+	// outputs of the last hidden layer per row, bias column included
+	private final int width;
+
+	private double regularization = DEFAULT_REGULARIZATION;
+	private double targetMargin = DEFAULT_TARGET_MARGIN;
+
+	// H'H (lower triangle) and H'T over all rows seen, T the expected outputs before activation
+	private final double[][] gram;
+	private final double[][] moments;
+	private final double[] target;
+	private final double[] batch;
+	private final double[] nextBatch;
+
+	private long sampleCount;
+	private long accumulateNanos;
+	private long solveNanos;
+
+	public ElmTrainer(BackpropagationNet net) {
+		this.net = net;
+		int outputIndex = net.getLayerCount() - 1;
+		this.hiddenLayer = net.getNeuralLayer(outputIndex - 1);
+		this.outputActivation = outputActivationOf(net.getNeuralLayer(
+				outputIndex).getActivationFunction());
+		this.numInputs = net.getNumInputNeurons();
+		this.numOutputs = net.getNumOutputNeurons();
+		this.width = hiddenLayer.getOutputWidth();
+
+		int maxWidth = 0;
+		for (int i = 0; i < outputIndex; i++)
+			maxWidth = Math.max(maxWidth, net.getNeuralLayer(i).getOutputWidth());
+		this.gram = new double[width][width];
+		this.moments = new double[width][numOutputs];
+		this.target = new double[numOutputs];
+		this.batch = new double[BATCH_SIZE * maxWidth];
+		this.nextBatch = new double[BATCH_SIZE * maxWidth];
+	}
+
+	private static int outputActivationOf(ActivationFunction activation) {
+		Class<?> type = activation.getClass();
+		if (type == SigmoidActivation.class)
+			return OUTPUT_SIGMOID;
+		if (type == HyperbolicTangentActivation.class)
+			return OUTPUT_TANH;
+		if (type == LinearActivation.class)
+			return OUTPUT_LINEAR;
+		throw new RuntimeException(
+				"ElmTrainer: output activation has no known inverse.");
+	}
+
+	public void setRegularization(double regularization) {
+		if (regularization < 0)
+			throw new RuntimeException(
+					"setRegularization: regularization must be >= 0.");
+		this.regularization = regularization;
+	}
+
+	public void setTargetMargin(double targetMargin) {
+		if (targetMargin <= 0 || targetMargin >= 0.5)
+			throw new RuntimeException(
+					"setTargetMargin: margin must be in (0, 0.5).");
+		this.targetMargin = targetMargin;
+	}
+
+	public void train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) {
+		if (inputTrainingSet[0].length != numInputs
+				|| expectedTrainingSet[0].length != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+
+		long startTime = System.nanoTime();
+		reset();
+		int inputWidth = net.getNeuralLayer(0).getOutputWidth();
+		for (int start = 0; start < inputTrainingSet.length; start += BATCH_SIZE) {
+			int rows = Math.min(BATCH_SIZE, inputTrainingSet.length - start);
+			for (int r = 0; r < rows; r++) {
+				System.arraycopy(inputTrainingSet[start + r], 0, batch, r
+						* inputWidth, numInputs);
+				if (inputWidth > numInputs)
+					batch[r * inputWidth + numInputs] = 1.0;
+			}
+			accumulate(rows, expectedTrainingSet, start, null);
+		}
+		accumulateNanos = System.nanoTime() - startTime;
+		solve();
+	}
+
+	// stream the data set batch by batch, e.g. a MappedDataSet larger than the heap
+	public void train(TrainingDataSet dataSet) {
+		if (dataSet.getNumInputs() != numInputs
+				|| dataSet.getNumOutputs() != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+
+		long startTime = System.nanoTime();
+		reset();
+		int inputWidth = net.getNeuralLayer(0).getOutputWidth();
+		double[] inputs = new double[BATCH_SIZE * numInputs];
+		double[] outputs = new double[BATCH_SIZE * numOutputs];
+		long numSamples = dataSet.getSampleCount();
+		for (long start = 0; start < numSamples; start += BATCH_SIZE) {
+			int rows = (int) Math.min(BATCH_SIZE, numSamples - start);
+			dataSet.readBatch(start, rows, inputs, outputs);
+			for (int r = 0; r < rows; r++) {
+				System.arraycopy(inputs, r * numInputs, batch, r * inputWidth,
+						numInputs);
+				if (inputWidth > numInputs)
+					batch[r * inputWidth + numInputs] = 1.0;
+			}
+			accumulate(rows, null, 0, outputs);
+		}
+		accumulateNanos = System.nanoTime() - startTime;
+		solve();
+	}
+
+	private void reset() {
+		for (int a = 0; a < width; a++) {
+			Arrays.fill(gram[a], 0);
+			Arrays.fill(moments[a], 0);
+		}
+		sampleCount = 0;
+	}
+
+	/*
+	 * forward rows of batch[] (input layer outputs) up to the last hidden layer and add them to
+	 * H'H and H'T; targets from expected[first ..] or, if that is null, flat flatExpected[]
+	 */
+	private void accumulate(int rows, double[][] expected, int first,
+			double[] flatExpected) {
+		double[] source = batch;
+		double[] result = nextBatch;
+		int sourceWidth = net.getNeuralLayer(0).getOutputWidth();
+		for (int i = 1; i < net.getLayerCount() - 1; i++) {
+			NeuralLayer layer = net.getNeuralLayer(i);
+			layer.computeBatchOutputs(source, sourceWidth, rows, result);
+			sourceWidth = layer.getOutputWidth();
+			double[] swap = source;
+			source = result;
+			result = swap;
+		}
+
+		for (int r = 0; r < rows; r++) {
+			int row = r * width;
+			for (int k = 0; k < numOutputs; k++) {
+				double y = (expected != null) ? expected[first + r][k]
+						: flatExpected[r * numOutputs + k];
+				target[k] = inverseActivation(y);
+			}
+
+			for (int a = 0; a < width; a++) {
+				double h = source[row + a];
+				double[] gramRow = gram[a];
+				for (int b = 0; b <= a; b++)
+					gramRow[b] += h * source[row + b];
+				double[] momentRow = moments[a];
+				for (int k = 0; k < numOutputs; k++)
+					momentRow[k] += h * target[k];
+			}
+		}
+		sampleCount += rows;
+	}
+
+	// expected output to the output neuron's sum before activation
+	private double inverseActivation(double y) {
+		switch (outputActivation) {
+		case OUTPUT_SIGMOID:
+			y = Math.min(Math.max(y, targetMargin), 1.0 - targetMargin);
+			return Math.log(y / (1.0 - y));
+		case OUTPUT_TANH:
+			y = Math.min(Math.max(y, -1.0 + 2 * targetMargin),
+					1.0 - 2 * targetMargin);
+			return 0.5 * Math.log((1.0 + y) / (1.0 - y));
+		default:
+			return y;
+		}
+	}
+
+	// (H'H + regularization * n * I) * W = H'T, W goes straight into the output layer
+	private void solve() {
+		long startTime = System.nanoTime();
+
+		WeightMatrix A = new WeightMatrix(gram);
+		double[][] a = A.getMatrix();
+		for (int i = 0; i < width; i++)
+			a[i][i] += regularization * sampleCount;
+		WeightMatrix W = A.solveCholesky(new WeightMatrix(moments));
+
+		// row-major [hidden output][output neuron], the output layer's slice of the parameters
+		double[] params = new double[net.getParameterCount()];
+		net.getParameters(params);
+		int offset = net.getNeuralLayer(net.getLayerCount() - 1)
+				.getWeightOffset();
+		double[][] w = W.getMatrix();
+		for (int i = 0; i < width; i++)
+			System.arraycopy(w[i], 0, params, offset + i * numOutputs,
+					numOutputs);
+		net.setParameters(params);
+
+		solveNanos = System.nanoTime() - startTime;
+	}
+
+	// rows seen by the last train() call
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	// time of the forward pass and accumulation of H'H of the last train() call
+	public long getAccumulateNanos() {
+		return accumulateNanos;
+	}
+
+	public long getSolveNanos() {
+		return solveNanos;
+	}
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.creativeongreen.neuralnetwork.activation.SigmoidActivation;
+
+/**
+*
+* @author creativeongreen
+* 
+* Ensemble of trained nets whose outputs are combined by mean or majority vote
+* 
+*/
+public class EnsembleNet {
+
+	private static final String LOG_TAG = "NN_EnsembleNet";
+
+	// how member outputs are combined
+	public static final int COMBINE_MEAN = 0;
+	// 1.0 if more than half of the members output >= 0.5, 0.0 if less, 0.5 on a tie
+	public static final int COMBINE_VOTE = 1;
+
+	// below this many rows a batch is not split across threads
+	private static final int MIN_ROWS_PER_TASK = 64;
+
+	private final BackpropagationNet[] members;
+	private final int combineMode;
+	private final ExecutorService executor;
+
+	private final int numInputs;
+	private final int numOutputs;
+
+	/*
+	 * members sharing one input-hidden-output sigmoid topology are fused: the hidden weights of
+	 * all members sit side by side in one [(inputs + 1) x (members * hidden)] matrix, so a
+	 * single wide product computes every member's hidden layer at once
+	 */
+	private final boolean fused;
+	private final int numHidden;
+	// hidden and output weights replaced together by refresh(), so a concurrent
+	// computeOutputs() never pairs new hidden weights with old output weights
+	private volatile FusedWeights fusedWeights;
+
+	private static final class FusedWeights {
+		final double[] hidden;
+		final double[] output;
+
+		FusedWeights(double[] hidden, double[] output) {
+			this.hidden = hidden;
+			this.output = output;
+		}
+	}
+
+	// per thread buffers, so that single row calls allocate nothing
+	private static final class Scratch {
+		double[] hidden;
+		double[] memberOutputs;
+		// one row batch for members which are not fused
+		double[][] inputRow = new double[1][];
+		double[][] outputRow;
+		double[] batchScratch;
+	}
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+	// executor may be null, then everything runs on the calling thread
+	public EnsembleNet(BackpropagationNet[] members, int combineMode,
+			ExecutorService executor) {
+		if (members.length == 0)
+			throw new RuntimeException("EnsembleNet: no members.");
+
+		this.members = members.clone();
+		this.combineMode = combineMode;
+		this.executor = executor;
+		this.numInputs = members[0].getNumInputNeurons();
+		this.numOutputs = members[0].getNumOutputNeurons();
+		this.numHidden = members[0].getNumHiddenNeurons();
+
+		boolean sameTopology = true;
+		for (int m = 0; m < members.length; m++) {
+			BackpropagationNet member = members[m];
+			if (member.getNumInputNeurons() != numInputs
+					|| member.getNumOutputNeurons() != numOutputs)
+				throw new RuntimeException(
+						"EnsembleNet: members must have the same inputs and outputs.");
+			sameTopology &= member.getNumHiddenNeurons() == numHidden
+					&& isSigmoidThreeLayerNet(member);
+		}
+		this.fused = sameTopology;
+
+		refresh();
+	}
+
+	// exact class match like FrozenNet, a subclass may override activate() and the fused path
+	// inlines the plain sigmoid
+	private static boolean isSigmoidThreeLayerNet(BackpropagationNet net) {
+		return net.getLayerCount() == 3
+				&& net.getNeuralLayer(1).getActivationFunction().getClass()
+						== SigmoidActivation.class
+				&& net.getNeuralLayer(2).getActivationFunction().getClass()
+						== SigmoidActivation.class
+				&& net.getNeuralLayer(0).getOutputWidth() == net
+						.getNumInputNeurons() + 1
+				&& net.getNeuralLayer(1).getOutputWidth() == net
+						.getNumHiddenNeurons() + 1;
+	}
+
+	// re-pack the fused weights, needed after members were trained further
+	public void refresh() {
+		if (!fused)
+			return;
+
+		int numMembers = members.length;
+		int width = numMembers * numHidden;
+		int hiddenWeightCount = (numInputs + 1) * numHidden;
+		int outputWeightCount = (numHidden + 1) * numOutputs;
+		double[] params = new double[hiddenWeightCount + outputWeightCount];
+		double[] hiddenWeights = new double[(numInputs + 1) * width];
+		double[] outputWeights = new double[numMembers * outputWeightCount];
+
+		for (int m = 0; m < numMembers; m++) {
+			members[m].getParameters(params);
+			for (int i = 0; i <= numInputs; i++)
+				System.arraycopy(params, i * numHidden, hiddenWeights, i
+						* width + m * numHidden, numHidden);
+			System.arraycopy(params, hiddenWeightCount, outputWeights, m
+					* outputWeightCount, outputWeightCount);
+		}
+
+		fusedWeights = new FusedWeights(hiddenWeights, outputWeights);
+	}
+
+	public void computeOutputs(double[] input, double[] output) {
+		Scratch buffers = getScratch();
+		double[] memberOutputs = buffers.memberOutputs;
+
+		if (fused) {
+			computeFused(input, buffers.hidden, memberOutputs);
+		} else {
+			buffers.inputRow[0] = input;
+			for (int m = 0; m < members.length; m++) {
+				members[m].computeOutputs(buffers.inputRow, null, 0, 1,
+						buffers.outputRow, buffers.batchScratch);
+				System.arraycopy(buffers.outputRow[0], 0, memberOutputs, m
+						* numOutputs, numOutputs);
+			}
+			buffers.inputRow[0] = null;
+		}
+
+		combine(memberOutputs, output);
+	}
+
+	/*
+	 * inputs[from..to) into outputs[0..to-from); fused ensembles split the rows across the
+	 * executor, others evaluate one member per task
+	 */
+	public void computeOutputs(final double[][] inputs, final int from,
+			final int to, final double[][] outputs) throws InterruptedException {
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+		if (fused) {
+			int numTasks = (executor == null) ? 1 : Math.max(1, Math.min(
+					Runtime.getRuntime().availableProcessors(), (to - from)
+							/ MIN_ROWS_PER_TASK));
+			for (int t = 0; t < numTasks; t++) {
+				final int start = from + (int) ((long) t * (to - from) / numTasks);
+				final int end = from
+						+ (int) ((long) (t + 1) * (to - from) / numTasks);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						Scratch buffers = getScratch();
+						for (int r = start; r < end; r++) {
+							computeFused(inputs[r], buffers.hidden,
+									buffers.memberOutputs);
+							combine(buffers.memberOutputs, outputs[r - from]);
+						}
+						return null;
+					}
+				});
+			}
+		} else {
+			final double[][][] memberOutputs = new double[members.length][to
+					- from][numOutputs];
+			for (int m = 0; m < members.length; m++) {
+				final int member = m;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						members[member].computeOutputs(inputs, null, from, to,
+								memberOutputs[member]);
+						return null;
+					}
+				});
+			}
+			runTasks(tasks);
+			tasks.clear();
+
+			double[] rowOutputs = new double[members.length * numOutputs];
+			for (int r = 0; r < to - from; r++) {
+				for (int m = 0; m < members.length; m++)
+					System.arraycopy(memberOutputs[m][r], 0, rowOutputs, m
+							* numOutputs, numOutputs);
+				combine(rowOutputs, outputs[r]);
+			}
+		}
+
+		runTasks(tasks);
+	}
+
+	private void runTasks(ArrayList<Callable<Void>> tasks)
+			throws InterruptedException {
+		if (tasks.isEmpty())
+			return;
+
+		if (executor == null || tasks.size() == 1) {
+			try {
+				for (int t = 0; t < tasks.size(); t++)
+					tasks.get(t).call();
+			} catch (Exception e) {
+				throw new RuntimeException("computeOutputs: failed", e);
+			}
+			return;
+		}
+
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+		// run the last task on the calling thread instead of leaving it idle
+		for (int t = 0; t < tasks.size() - 1; t++)
+			futures.add(executor.submit(tasks.get(t)));
+		try {
+			tasks.get(tasks.size() - 1).call();
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("computeOutputs: failed", e.getCause());
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("computeOutputs: failed", e);
+		} finally {
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).cancel(true);
+		}
+	}
+
+	// all members' outputs of one input row, member m at memberOutputs[m * numOutputs ..]
+	private void computeFused(double[] input, double[] hidden,
+			double[] memberOutputs) {
+		FusedWeights weights = fusedWeights;
+		double[] hiddenWeights = weights.hidden;
+		double[] outputWeights = weights.output;
+		int width = members.length * numHidden;
+
+		// bias row first, then accumulate row by row, walking the weights sequentially
+		System.arraycopy(hiddenWeights, numInputs * width, hidden, 0, width);
+		for (int i = 0; i < numInputs; i++) {
+			double x = input[i];
+			int row = i * width;
+			for (int c = 0; c < width; c++)
+				hidden[c] += x * hiddenWeights[row + c];
+		}
+		for (int c = 0; c < width; c++)
+			hidden[c] = 1.0 / (1 + Math.exp(-1.0 * hidden[c]));
+
+		int outputWeightCount = (numHidden + 1) * numOutputs;
+		for (int m = 0; m < members.length; m++) {
+			int block = m * outputWeightCount;
+			int hiddenOffset = m * numHidden;
+			for (int k = 0; k < numOutputs; k++) {
+				double sumWeights = outputWeights[block + numHidden
+						* numOutputs + k];
+				for (int j = 0; j < numHidden; j++)
+					sumWeights += hidden[hiddenOffset + j]
+							* outputWeights[block + j * numOutputs + k];
+				memberOutputs[m * numOutputs + k] = 1.0 / (1 + Math
+						.exp(-1.0 * sumWeights));
+			}
+		}
+	}
+
+	private void combine(double[] memberOutputs, double[] output) {
+		int numMembers = members.length;
+		for (int k = 0; k < numOutputs; k++) {
+			if (combineMode == COMBINE_VOTE) {
+				int votes = 0;
+				for (int m = 0; m < numMembers; m++)
+					if (memberOutputs[m * numOutputs + k] >= 0.5)
+						votes++;
+				output[k] = (2 * votes > numMembers) ? 1.0
+						: ((2 * votes == numMembers) ? 0.5 : 0.0);
+			} else {
+				double sum = 0;
+				for (int m = 0; m < numMembers; m++)
+					sum += memberOutputs[m * numOutputs + k];
+				output[k] = sum / numMembers;
+			}
+		}
+	}
+
+	private Scratch getScratch() {
+		Scratch buffers = scratch.get();
+		if (buffers == null) {
+			buffers = new Scratch();
+			buffers.hidden = new double[members.length * numHidden];
+			buffers.memberOutputs = new double[members.length * numOutputs];
+			buffers.outputRow = new double[1][numOutputs];
+			if (!fused) {
+				int scratchSize = 0;
+				for (int m = 0; m < members.length; m++)
+					scratchSize = Math.max(scratchSize,
+							members[m].getBatchScratchSize(1));
+				buffers.batchScratch = new double[scratchSize];
+			}
+			scratch.set(buffers);
+		}
+		return buffers;
+	}
+
+	public boolean isFused() {
+		return fused;
+	}
+
+	public int getMemberCount() {
+		return members.length;
+	}
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.creativeongreen.neuralnetwork.activation.ActivationFunction;
+
+/**
+*
+* @author creativeongreen
+* 
+* Gradient-free training of a net's weights with the separable CMA evolution strategy
+* (sep-CMA-ES, diagonal covariance); the candidates of a generation are sampled and scored on
+* the executor's threads
+* 
+*/
+public class EvolutionTrainer {
+
+	private static final String LOG_TAG = "NN_EvolutionTrainer";
+
+	public static final double DEFAULT_STEP_SIZE = 0.5;
+
+	private final BackpropagationNet net;
+	private final ExecutorService executor;
+	private final int numParams;
+	private final int populationSize;
+	private final int numParents;
+
+	// topology of net, layer l + 1 reads layerSizes[l] values (plus bias) and its weights start at
+	// weightOffsets[l], row-major [input][neuron] as in getParameters()
+	private final int[] layerSizes;
+	private final boolean[] layerBiases;
+	private final int[] weightOffsets;
+	private final ActivationFunction[] activations;
+	private final int maxWidth;
+
+	// strategy parameters, see Hansen, "The CMA Evolution Strategy: A Tutorial" and Ros and
+	// Hansen, "A Simple Modification in CMA-ES Achieving Linear Time and Space Complexity"
+	private final double[] recombinationWeights;
+	private final double parentsEffective;
+	private final double cSigma, dSigma, cC, c1, cMu, chiN;
+
+	// all buffers are allocated once, candidate k at [k * numParams ..]
+	private final double[] mean;
+	private final double[] previousMean;
+	private final double[] variances;
+	private final double[] deviations;
+	private final double[] pathSigma;
+	private final double[] pathC;
+	private final double[] candidates;
+	private final double[] samples;
+	private final double[] errors;
+	private final int[] ranking;
+	private final double[] bestParams;
+	private final ArrayList<EvaluationTask> tasks = new ArrayList<EvaluationTask>();
+
+	private double stepSize = DEFAULT_STEP_SIZE;
+	private double[][] inputTrainingSet;
+	private double[][] expectedTrainingSet;
+	private int generation;
+	private long evaluationCount;
+	private double trainingError = 1;
+
+	public EvolutionTrainer(BackpropagationNet net, ExecutorService executor) {
+		this(net, executor, 0, 1, System.nanoTime());
+	}
+
+	/*
+	 * populationSize 0 picks the usual 4 + 3 ln(n) for n weights; the population is split into
+	 * numTasks parts scored in parallel, executor null scores them on the calling thread; the
+	 * part of task t is drawn from a generator seeded with seed + t, so runs are reproducible
+	 * whatever the number of threads
+	 */
+	public EvolutionTrainer(BackpropagationNet net, ExecutorService executor,
+			int populationSize, int numTasks, long seed) {
+		if (populationSize != 0 && populationSize < 2)
+			throw new RuntimeException(
+					"EvolutionTrainer: population size must be >= 2.");
+		if (numTasks < 1)
+			throw new RuntimeException(
+					"EvolutionTrainer: number of tasks must be >= 1.");
+
+		this.net = net;
+		this.executor = executor;
+		this.numParams = net.getParameterCount();
+		this.populationSize = (populationSize == 0) ? 4 + (int) (3 * Math
+				.log(numParams)) : populationSize;
+		this.numParents = this.populationSize / 2;
+
+		int numLayers = net.getLayerCount() - 1;
+		this.layerSizes = new int[numLayers + 1];
+		this.layerBiases = new boolean[numLayers];
+		this.weightOffsets = new int[numLayers];
+		this.activations = new ActivationFunction[numLayers];
+		int width = 0;
+		for (int l = 0; l <= numLayers; l++) {
+			NeuralLayer layer = net.getNeuralLayer(l);
+			layerSizes[l] = layer.getNeuronCount();
+			width = Math.max(width, layerSizes[l]);
+			if (l < numLayers) {
+				NeuralLayer nextLayer = net.getNeuralLayer(l + 1);
+				layerBiases[l] = layer.hasBias();
+				weightOffsets[l] = nextLayer.getWeightOffset();
+				activations[l] = nextLayer.getActivationFunction();
+			}
+		}
+		this.maxWidth = width;
+
+		// log-linear recombination weights of the best half, summing to 1
+		recombinationWeights = new double[numParents];
+		double sum = 0;
+		for (int i = 0; i < numParents; i++) {
+			recombinationWeights[i] = Math.log(numParents + 0.5)
+					- Math.log(i + 1);
+			sum += recombinationWeights[i];
+		}
+		double sumSquares = 0;
+		for (int i = 0; i < numParents; i++) {
+			recombinationWeights[i] /= sum;
+			sumSquares += recombinationWeights[i] * recombinationWeights[i];
+		}
+		parentsEffective = 1.0 / sumSquares;
+
+		double n = numParams;
+		double mu = parentsEffective;
+		cSigma = (mu + 2) / (n + mu + 5);
+		dSigma = 1 + 2 * Math.max(0, Math.sqrt((mu - 1) / (n + 1)) - 1)
+				+ cSigma;
+		cC = (4 + mu / n) / (n + 4 + 2 * mu / n);
+		// learning rates of the full covariance, scaled up by (n + 2) / 3 for the diagonal
+		double rank1 = 2 / ((n + 1.3) * (n + 1.3) + mu);
+		double rankMu = Math.min(1 - rank1, 2 * (mu - 2 + 1 / mu)
+				/ ((n + 2) * (n + 2) + mu));
+		double separable = (n + 2) / 3;
+		c1 = Math.min(1, rank1 * separable);
+		cMu = Math.min(1 - c1, rankMu * separable);
+		chiN = Math.sqrt(n) * (1 - 1 / (4 * n) + 1 / (21 * n * n));
+
+		mean = new double[numParams];
+		previousMean = new double[numParams];
+		variances = new double[numParams];
+		deviations = new double[numParams];
+		pathSigma = new double[numParams];
+		pathC = new double[numParams];
+		candidates = new double[this.populationSize * numParams];
+		samples = new double[this.populationSize * numParams];
+		errors = new double[this.populationSize];
+		ranking = new int[this.populationSize];
+		bestParams = new double[numParams];
+
+		numTasks = Math.min(numTasks, this.populationSize);
+		for (int t = 0; t < numTasks; t++)
+			tasks.add(new EvaluationTask(t * this.populationSize / numTasks,
+					(t + 1) * this.populationSize / numTasks, seed + t));
+	}
+
+	// initial spread of the candidates around the net's weights
+	public void setStepSize(double stepSize) {
+		if (stepSize <= 0)
+			throw new RuntimeException("setStepSize: step size must be > 0.");
+		this.stepSize = stepSize;
+	}
+
+	/*
+	 * evolve the net's weights until the MSE over the whole training set drops below the net's
+	 * global error, the net's max. epoch generations are spent or stopTraining() is called; the
+	 * net ends up with the best weights seen
+	 */
+	public void train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) throws InterruptedException {
+		this.inputTrainingSet = inputTrainingSet;
+		this.expectedTrainingSet = expectedTrainingSet;
+		final double globalError = net.getGlobalError();
+		final int maxGeneration = net.getMaxEpoch();
+
+		net.getParameters(mean);
+		System.arraycopy(mean, 0, bestParams, 0, numParams);
+		trainingError = evaluate(mean, 0, tasks.get(0).buffer);
+		Arrays.fill(variances, 1);
+		Arrays.fill(deviations, 1);
+		Arrays.fill(pathSigma, 0);
+		Arrays.fill(pathC, 0);
+		double sigma = stepSize;
+		generation = 0;
+		evaluationCount = 1;
+
+		try {
+			while (trainingError > globalError && generation < maxGeneration
+					&& !net.isStopRequested()) {
+
+				// sample and score, candidate k = mean + sigma * deviations * z(k)
+				for (int t = 0; t < tasks.size(); t++)
+					tasks.get(t).sigma = sigma;
+				runTasks();
+				evaluationCount += populationSize;
+
+				rank();
+				int best = ranking[0];
+				if (errors[best] < trainingError) {
+					trainingError = errors[best];
+					System.arraycopy(candidates, best * numParams, bestParams,
+							0, numParams);
+				}
+
+				// recombine the best half into the new mean and its mean step z
+				System.arraycopy(mean, 0, previousMean, 0, numParams);
+				double pathSigmaNorm = 0;
+				double sigmaFactor = Math.sqrt(cSigma * (2 - cSigma)
+						* parentsEffective);
+				for (int i = 0; i < numParams; i++) {
+					double x = 0;
+					double z = 0;
+					for (int p = 0; p < numParents; p++) {
+						int k = ranking[p] * numParams + i;
+						x += recombinationWeights[p] * candidates[k];
+						z += recombinationWeights[p] * samples[k];
+					}
+					mean[i] = x;
+					pathSigma[i] = (1 - cSigma) * pathSigma[i] + sigmaFactor * z;
+					pathSigmaNorm += pathSigma[i] * pathSigma[i];
+				}
+				pathSigmaNorm = Math.sqrt(pathSigmaNorm);
+
+				// stall the rank-one update while the step size grows fast
+				generation++;
+				double threshold = (1.4 + 2 / (numParams + 1.0)) * chiN;
+				boolean hSigma = pathSigmaNorm
+						/ Math.sqrt(1 - Math.pow(1 - cSigma, 2 * generation)) < threshold;
+				double cFactor = hSigma ? Math.sqrt(cC * (2 - cC)
+						* parentsEffective) : 0;
+				double lostVariance = hSigma ? 0 : c1 * cC * (2 - cC);
+
+				for (int i = 0; i < numParams; i++) {
+					pathC[i] = (1 - cC) * pathC[i] + cFactor
+							* (mean[i] - previousMean[i]) / sigma;
+					double rankMu = 0;
+					for (int p = 0; p < numParents; p++) {
+						double y = deviations[i]
+								* samples[ranking[p] * numParams + i];
+						rankMu += recombinationWeights[p] * y * y;
+					}
+					variances[i] = (1 - c1 - cMu) * variances[i] + c1
+							* pathC[i] * pathC[i] + lostVariance * variances[i]
+							+ cMu * rankMu;
+					deviations[i] = Math.sqrt(variances[i]);
+				}
+
+				sigma *= Math.exp((cSigma / dSigma) * (pathSigmaNorm / chiN - 1));
+			}
+		} finally {
+			net.setParameters(bestParams);
+			this.inputTrainingSet = null;
+			this.expectedTrainingSet = null;
+		}
+	}
+
+	private void runTasks() throws InterruptedException {
+		if (executor == null || tasks.size() == 1) {
+			for (int t = 0; t < tasks.size(); t++)
+				tasks.get(t).call();
+			return;
+		}
+
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(
+				tasks.size());
+		try {
+			for (int t = 0; t < tasks.size(); t++)
+				futures.add(executor.submit(tasks.get(t)));
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("train: evaluation failed", e.getCause());
+		} finally {
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).cancel(true);
+		}
+	}
+
+	// ranking[] = candidates by ascending error, insertion sort as the population is small
+	private void rank() {
+		for (int k = 0; k < populationSize; k++) {
+			int candidate = k;
+			int p = k;
+			while (p > 0 && errors[ranking[p - 1]] > errors[candidate]) {
+				ranking[p] = ranking[p - 1];
+				p--;
+			}
+			ranking[p] = candidate;
+		}
+	}
+
+	/*
+	 * MSE of the weights params[offset ..] over the training set, the net's stop metric; a
+	 * forward pass in the layout of NeuralLayer.computeOutputs() on buffer[2 * maxWidth]
+	 */
+	private double evaluate(double[] params, int offset, double[] buffer) {
+		double[][] inputs = inputTrainingSet;
+		double[][] expected = expectedTrainingSet;
+		int numLayers = activations.length;
+		int numOutputs = layerSizes[numLayers];
+		double sumSquaredError = 0;
+
+		for (int sample = 0; sample < inputs.length; sample++) {
+			double[] source = inputs[sample];
+			int sourceStart = 0;
+			for (int l = 0; l < numLayers; l++) {
+				int count = layerSizes[l];
+				int n = layerSizes[l + 1];
+				int target = (l & 1) * maxWidth;
+				int row = offset + weightOffsets[l];
+
+				Arrays.fill(buffer, target, target + n, 0);
+				for (int i = 0; i < count; i++, row += n) {
+					double x = source[sourceStart + i];
+					for (int j = 0; j < n; j++)
+						buffer[target + j] += x * params[row + j];
+				}
+				if (layerBiases[l])
+					for (int j = 0; j < n; j++)
+						buffer[target + j] += params[row + j];
+				ActivationFunction activation = activations[l];
+				for (int j = target; j < target + n; j++)
+					buffer[j] = activation.activate(buffer[j]);
+
+				source = buffer;
+				sourceStart = target;
+			}
+
+			double[] output = expected[sample];
+			for (int k = 0; k < numOutputs; k++) {
+				double error = output[k] - source[sourceStart + k];
+				sumSquaredError += error * error;
+			}
+		}
+		return sumSquaredError / ((double) inputs.length * numOutputs);
+	}
+
+	// samples and scores candidates [from, to) with its own generator and forward pass buffer
+	private class EvaluationTask implements Callable<Void> {
+		private final int from;
+		private final int to;
+		private final Random random;
+		private final double[] buffer = new double[2 * maxWidth];
+		private double sigma;
+
+		EvaluationTask(int from, int to, long seed) {
+			this.from = from;
+			this.to = to;
+			this.random = new Random(seed);
+		}
+
+		@Override
+		public Void call() {
+			for (int k = from; k < to; k++) {
+				int offset = k * numParams;
+				for (int i = 0; i < numParams; i++) {
+					double z = random.nextGaussian();
+					samples[offset + i] = z;
+					candidates[offset + i] = mean[i] + sigma * deviations[i] * z;
+				}
+				errors[k] = evaluate(candidates, offset, buffer);
+			}
+			return null;
+		}
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	// number of weight vectors scored in the last train() call
+	public long getEvaluationCount() {
+		return evaluationCount;
+	}
+
+	// MSE of the best weights found
+	public double getTrainingError() {
+		return trainingError;
+	}
+
+	public int getPopulationSize() {
+		return populationSize;
+	}
+
+}
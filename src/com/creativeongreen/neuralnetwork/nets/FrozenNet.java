@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import com.creativeongreen.neuralnetwork.activation.ActivationFunction;
+import com.creativeongreen.neuralnetwork.activation.HyperbolicTangentActivation;
+import com.creativeongreen.neuralnetwork.activation.LinearActivation;
+import com.creativeongreen.neuralnetwork.activation.SigmoidActivation;
+
+/**
+*
+* @author creativeongreen
+* 
+* Immutable inference-only copy of a trained net, see BackpropagationNet.freeze(); all weights
+* in one array, no training state, safe to share between threads
+* 
+*/
+public final class FrozenNet {
+
+	private static final String LOG_TAG = "NN_FrozenNet";
+
+	// activation of a layer, the built-in functions are inlined, others called through the interface
+	public static final int ACTIVATION_SIGMOID = 0;
+	public static final int ACTIVATION_TANH = 1;
+	public static final int ACTIVATION_LINEAR = 2;
+	public static final int ACTIVATION_CUSTOM = 3;
+
+	private final int numInputs;
+	private final int numOutputs;
+	// per layer after the input layer: width, inputs read (previous width, without bias),
+	// whether a bias weight follows them, start of the layer's weights and activation
+	private final int[] neuronCounts;
+	private final int[] inputCounts;
+	private final boolean[] inputBiases;
+	private final int[] weightOffsets;
+	private final int[] activations;
+	private final ActivationFunction[] customActivations;
+	// neuron-major: neuron j of layer l reads weights[weightOffsets[l] + j * stride ..], one per
+	// input then the bias weight, stride = inputCounts[l] + (inputBiases[l] ? 1 : 0)
+	private final double[] weights;
+	private final int maxWidth;
+	// unrolled forward pass of a tiny net, null where the generic loop is used
+	private final UnrolledKernel kernel;
+
+	private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[getScratchSize()];
+		}
+	};
+
+	FrozenNet(BackpropagationNet net, boolean unroll) {
+		int numLayers = net.getLayerCount() - 1;
+		this.numInputs = net.getNumInputNeurons();
+		this.numOutputs = net.getNumOutputNeurons();
+		this.neuronCounts = new int[numLayers];
+		this.inputCounts = new int[numLayers];
+		this.inputBiases = new boolean[numLayers];
+		this.weightOffsets = new int[numLayers];
+		this.activations = new int[numLayers];
+		this.customActivations = new ActivationFunction[numLayers];
+		this.weights = new double[net.getParameterCount()];
+
+		double[] params = new double[weights.length];
+		net.getParameters(params);
+
+		int offset = 0;
+		int width = 0;
+		for (int l = 0; l < numLayers; l++) {
+			NeuralLayer prevLayer = net.getNeuralLayer(l);
+			NeuralLayer layer = net.getNeuralLayer(l + 1);
+			int n = layer.getNeuronCount();
+			int rows = prevLayer.getOutputWidth();
+
+			neuronCounts[l] = n;
+			inputCounts[l] = prevLayer.getNeuronCount();
+			inputBiases[l] = prevLayer.hasBias();
+			weightOffsets[l] = offset;
+			activations[l] = activationOf(layer.getActivationFunction());
+			if (activations[l] == ACTIVATION_CUSTOM)
+				customActivations[l] = layer.getActivationFunction();
+
+			// transpose the layer's row-major [input][neuron] weights
+			int source = layer.getWeightOffset();
+			for (int i = 0; i < rows; i++)
+				for (int j = 0; j < n; j++)
+					weights[offset + j * rows + i] = params[source + i * n + j];
+			offset += rows * n;
+			width = Math.max(width, n);
+		}
+		this.maxWidth = width;
+		this.kernel = unroll ? UnrolledKernel.create(numInputs, neuronCounts,
+				inputBiases, activations, weights) : null;
+	}
+
+	// only the exact built-in classes are inlined, a subclass may override activate()
+	private static int activationOf(ActivationFunction activation) {
+		Class<?> type = activation.getClass();
+		if (type == SigmoidActivation.class)
+			return ACTIVATION_SIGMOID;
+		if (type == HyperbolicTangentActivation.class)
+			return ACTIVATION_TANH;
+		if (type == LinearActivation.class)
+			return ACTIVATION_LINEAR;
+		return ACTIVATION_CUSTOM;
+	}
+
+	/*
+	 * output[0..getNumOutputs()) = net output for input[], with a scratch buffer of the calling
+	 * thread; gives the same values as BackpropagationNet.feedForward() at freeze time
+	 */
+	public void computeOutputs(double[] input, double[] output) {
+		if (kernel != null) {
+			if (input.length < numInputs)
+				throw new IllegalArgumentException(
+						"computeOutputs: input dimensions not match number of input neurons.");
+			kernel.compute(input, output);
+			return;
+		}
+		computeOutputs(input, output, scratch.get());
+	}
+
+	// as above with the caller's scratch[], of at least getScratchSize() values
+	public void computeOutputs(double[] input, double[] output, double[] scratch) {
+		if (input.length < numInputs)
+			throw new IllegalArgumentException(
+					"computeOutputs: input dimensions not match number of input neurons.");
+		if (scratch.length < getScratchSize())
+			throw new IllegalArgumentException(
+					"computeOutputs: scratch buffer too small.");
+		if (kernel != null) {
+			kernel.compute(input, output);
+			return;
+		}
+
+		double[] source = input;
+		int sourceStart = 0;
+		int last = neuronCounts.length - 1;
+		for (int l = 0; l <= last; l++) {
+			// alternate between the two halves of scratch[], the last layer writes output[]
+			double[] target = (l == last) ? output : scratch;
+			int targetStart = (l == last) ? 0 : (l & 1) * maxWidth;
+			computeLayer(l, source, sourceStart, target, targetStart);
+			source = target;
+			sourceStart = targetStart;
+		}
+	}
+
+	// rows inputs[from..to) into outputs[0..to-from)
+	public void computeOutputs(double[][] inputs, int from, int to,
+			double[][] outputs) {
+		double[] scratch = this.scratch.get();
+		for (int r = from; r < to; r++)
+			computeOutputs(inputs[r], outputs[r - from], scratch);
+	}
+
+	private void computeLayer(int l, double[] source, int sourceStart,
+			double[] target, int targetStart) {
+		final double[] weights = this.weights;
+		final int n = neuronCounts[l];
+		final int count = inputCounts[l];
+		final boolean bias = inputBiases[l];
+		final int stride = count + (bias ? 1 : 0);
+
+		// inputs in the order the training net adds them, bias last, so results are bit-identical
+		int row = weightOffsets[l];
+		for (int j = 0; j < n; j++, row += stride) {
+			double sum = 0;
+			for (int i = 0; i < count; i++)
+				sum += source[sourceStart + i] * weights[row + i];
+			if (bias)
+				sum += weights[row + count];
+			target[targetStart + j] = sum;
+		}
+
+		final int end = targetStart + n;
+		switch (activations[l]) {
+		case ACTIVATION_SIGMOID:
+			for (int j = targetStart; j < end; j++)
+				target[j] = 1.0 / (1 + Math.exp(-1.0 * target[j]));
+			break;
+		case ACTIVATION_TANH:
+			for (int j = targetStart; j < end; j++)
+				target[j] = Math.tanh(target[j]);
+			break;
+		case ACTIVATION_LINEAR:
+			break;
+		default:
+			ActivationFunction activation = customActivations[l];
+			for (int j = targetStart; j < end; j++)
+				target[j] = activation.activate(target[j]);
+			break;
+		}
+	}
+
+	// values needed by computeOutputs(input, output, scratch)
+	public int getScratchSize() {
+		return 2 * maxWidth;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	// number of layers including the input and output layers
+	public int getLayerCount() {
+		return neuronCounts.length + 1;
+	}
+
+	public int getLayerSize(int index) {
+		return (index == 0) ? numInputs : neuronCounts[index - 1];
+	}
+
+	// ACTIVATION_* of layer index >= 1
+	public int getActivation(int index) {
+		return activations[index - 1];
+	}
+
+	public int getParameterCount() {
+		return weights.length;
+	}
+
+	// true if the forward pass runs as an unrolled kernel, see UnrolledKernel
+	public boolean isUnrolled() {
+		return kernel != null;
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* Grid, random and successive halving search over number of hidden neurons, learning rate and
+* momentum, trials are trained in parallel on a caller supplied (bounded) thread pool
+* 
+*/
+public class HyperParameterSearch {
+
+	private static final String LOG_TAG = "NN_HyperParameterSearch";
+
+	// same ranges as the sliders of param_seekbar_settings.xml, rates in steps of 0.01
+	public static final int MIN_HIDDEN_NEURONS = 0;
+	public static final int MAX_HIDDEN_NEURONS = 5;
+	public static final double MIN_RATE = 0.0;
+	public static final double MAX_RATE = 1.0;
+	public static final double RATE_STEP = 0.01;
+
+	// trials train in chunks of this many epochs and check their budgets in between
+	private static final int EPOCH_CHUNK = 250;
+
+	private final ExecutorService executor;
+	private final double[][] inputTrainingSet;
+	private final double[][] expectedTrainingSet;
+	private final double globalError;
+	private final int maxEpoch;
+
+	private long timeBudgetNanos = Long.MAX_VALUE;
+	private long seed = System.nanoTime();
+
+	// fastest time-to-error so far, trials which already took longer cannot win anymore
+	private volatile long bestConvergedNanos = Long.MAX_VALUE;
+	private volatile boolean forceStop = false;
+
+	public HyperParameterSearch(ExecutorService executor,
+			double[][] inputTrainingSet, double[][] expectedTrainingSet,
+			double globalError, int maxEpoch) {
+		this.executor = executor;
+		this.inputTrainingSet = inputTrainingSet;
+		this.expectedTrainingSet = expectedTrainingSet;
+		this.globalError = globalError;
+		this.maxEpoch = maxEpoch;
+	}
+
+	// wall clock budget per trial
+	public void setTimeBudget(long millis) {
+		this.timeBudgetNanos = millis * 1000000L;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	// evenly spaced values min, min + step, ... <= max
+	public static double[] range(double min, double max, double step) {
+		int count = (int) Math.floor((max - min) / step + 1e-9) + 1;
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++)
+			values[i] = Math.round((min + i * step) / RATE_STEP) * RATE_STEP;
+		return values;
+	}
+
+	// every combination, each trial gets the full max. epoch budget
+	public List<HyperParameterTrial> gridSearch(int[] numHiddenNeurons,
+			double[] learningRates, double[] momentums)
+			throws InterruptedException {
+		ArrayList<HyperParameterTrial> trials = new ArrayList<HyperParameterTrial>();
+		for (int h = 0; h < numHiddenNeurons.length; h++)
+			for (int l = 0; l < learningRates.length; l++)
+				for (int m = 0; m < momentums.length; m++)
+					trials.add(new HyperParameterTrial(numHiddenNeurons[h],
+							learningRates[l], momentums[m], seed + trials.size()));
+
+		return search(trials);
+	}
+
+	// numTrials configurations drawn uniformly from the slider ranges
+	public List<HyperParameterTrial> randomSearch(int numTrials)
+			throws InterruptedException {
+		return search(createRandomTrials(numTrials));
+	}
+
+	private List<HyperParameterTrial> search(List<HyperParameterTrial> trials)
+			throws InterruptedException {
+		bestConvergedNanos = Long.MAX_VALUE;
+		try {
+			runTrials(trials, maxEpoch);
+		} finally {
+			// cleared once the search is over, so a stop issued just before it is not lost
+			forceStop = false;
+		}
+		Collections.sort(trials, HyperParameterTrial.TIME_TO_ERROR_ORDER);
+		return trials;
+	}
+
+	/*
+	 * numTrials random configurations all get minEpoch epochs, then only the best 1/eta of them
+	 * continue with eta times the budget, and so on until max. epoch; trials keep their weights
+	 * between rounds
+	 */
+	public List<HyperParameterTrial> successiveHalving(int numTrials,
+			int minEpoch, int eta) throws InterruptedException {
+		if (eta < 2)
+			throw new IllegalArgumentException("successiveHalving: eta must be >= 2");
+
+		bestConvergedNanos = Long.MAX_VALUE;
+		List<HyperParameterTrial> trials = createRandomTrials(numTrials);
+		List<HyperParameterTrial> survivors = new ArrayList<HyperParameterTrial>(
+				trials);
+		int epochBudget = Math.min(minEpoch, maxEpoch);
+
+		try {
+			while (!survivors.isEmpty() && !forceStop) {
+				runTrials(survivors, epochBudget);
+				if (epochBudget >= maxEpoch)
+					break;
+
+				Collections.sort(survivors, HyperParameterTrial.TIME_TO_ERROR_ORDER);
+				ArrayList<HyperParameterTrial> next = new ArrayList<HyperParameterTrial>();
+				int keep = Math.max(1, survivors.size() / eta);
+				for (int i = 0; i < survivors.size(); i++) {
+					HyperParameterTrial trial = survivors.get(i);
+					if (i < keep && !trial.converged && !trial.stoppedEarly)
+						next.add(trial);
+					else if (!trial.converged)
+						trial.stoppedEarly = true;
+				}
+				survivors = next;
+				epochBudget = (int) Math.min((long) epochBudget * eta, maxEpoch);
+			}
+		} finally {
+			forceStop = false;
+		}
+
+		Collections.sort(trials, HyperParameterTrial.TIME_TO_ERROR_ORDER);
+		return trials;
+	}
+
+	private List<HyperParameterTrial> createRandomTrials(int numTrials) {
+		Random random = new Random(seed);
+		int rateSteps = (int) Math.round((MAX_RATE - MIN_RATE) / RATE_STEP);
+		ArrayList<HyperParameterTrial> trials = new ArrayList<HyperParameterTrial>();
+		for (int i = 0; i < numTrials; i++) {
+			int numHiddenNeurons = MIN_HIDDEN_NEURONS
+					+ random.nextInt(MAX_HIDDEN_NEURONS - MIN_HIDDEN_NEURONS + 1);
+			// a learning rate of 0.0 never learns, start at one step
+			double learningRate = MIN_RATE + (1 + random.nextInt(rateSteps))
+					* RATE_STEP;
+			double momentum = MIN_RATE + random.nextInt(rateSteps) * RATE_STEP;
+			trials.add(new HyperParameterTrial(numHiddenNeurons,
+					learningRate, momentum, seed + 1 + i));
+		}
+		return trials;
+	}
+
+	private void runTrials(List<HyperParameterTrial> trials,
+			final int epochBudget) throws InterruptedException {
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < trials.size(); i++) {
+			final HyperParameterTrial trial = trials.get(i);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					runTrial(trial, epochBudget);
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < futures.size(); i++)
+				futures.get(i).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("runTrials: trial failed", e.getCause());
+		} finally {
+			for (int i = 0; i < futures.size(); i++)
+				futures.get(i).cancel(true);
+		}
+	}
+
+	// train until converged, the epoch budget is spent or the trial can no longer win
+	private void runTrial(HyperParameterTrial trial, int epochBudget) {
+		if (trial.net == null)
+			trial.net = new BackpropagationNet(inputTrainingSet[0].length,
+					trial.getNumHiddenNeurons(), expectedTrainingSet[0].length,
+					trial.getLearningRate(), trial.getMomentum(), EPOCH_CHUNK,
+					globalError, trial.getSeed());
+		BackpropagationNet net = trial.net;
+
+		while (trial.epochs < epochBudget && !trial.converged && !forceStop) {
+			if (trial.elapsedNanos > timeBudgetNanos
+					|| trial.elapsedNanos > bestConvergedNanos) {
+				trial.stoppedEarly = true;
+				break;
+			}
+
+			net.setMaxEpoch(Math.min(EPOCH_CHUNK, epochBudget - trial.epochs));
+			long startTime = System.nanoTime();
+			net.train(inputTrainingSet, expectedTrainingSet);
+			trial.elapsedNanos += System.nanoTime() - startTime;
+			trial.epochs += net.getEpoch();
+			trial.error = net.getEpochMSE();
+			trial.converged = net.hasConverged();
+		}
+
+		if (trial.converged) {
+			synchronized (this) {
+				if (trial.elapsedNanos < bestConvergedNanos)
+					bestConvergedNanos = trial.elapsedNanos;
+			}
+		}
+	}
+
+	// ends the search under way, or the next one at once if none is
+	public void stopSearch() {
+		forceStop = true;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.Comparator;
+
+/**
+*
+* @author creativeongreen
+* 
+* One configuration of a hyper-parameter search and the outcome of its training run
+* 
+*/
+public class HyperParameterTrial {
+
+	// converged trials first, fastest first; the others by their final error
+	public static final Comparator<HyperParameterTrial> TIME_TO_ERROR_ORDER = new Comparator<HyperParameterTrial>() {
+		@Override
+		public int compare(HyperParameterTrial a, HyperParameterTrial b) {
+			if (a.converged != b.converged)
+				return a.converged ? -1 : 1;
+			if (a.converged)
+				return (a.elapsedNanos < b.elapsedNanos) ? -1
+						: ((a.elapsedNanos == b.elapsedNanos) ? 0 : 1);
+			return Double.compare(a.error, b.error);
+		}
+	};
+
+	private final int numHiddenNeurons;
+	private final double learningRate;
+	private final double momentum;
+	private final long seed;
+
+	BackpropagationNet net;
+	int epochs;
+	long elapsedNanos;
+	double error = Double.MAX_VALUE;
+	boolean converged;
+	boolean stoppedEarly;
+
+	public HyperParameterTrial(int numHiddenNeurons, double learningRate,
+			double momentum, long seed) {
+		this.numHiddenNeurons = numHiddenNeurons;
+		this.learningRate = learningRate;
+		this.momentum = momentum;
+		this.seed = seed;
+	}
+
+	public int getNumHiddenNeurons() {
+		return numHiddenNeurons;
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public double getMomentum() {
+		return momentum;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	// the trained net, null if the trial never ran
+	public BackpropagationNet getNet() {
+		return net;
+	}
+
+	// epochs spent over all budget rounds
+	public int getEpochs() {
+		return epochs;
+	}
+
+	// wall clock time spent training, time-to-error if converged
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getError() {
+		return error;
+	}
+
+	public boolean hasConverged() {
+		return converged;
+	}
+
+	// stopped before its budget because it could no longer beat the best trial
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hidden= %d, lr= %1.2f, momentum= %1.2f: %s epoch= %d, time= %d millis, MSE= %2.1e",
+				numHiddenNeurons, learningRate, momentum,
+				converged ? "converged" : (stoppedEarly ? "stopped" : "failed"),
+				epochs, elapsedNanos / 1000000, error);
+	}
+
+}
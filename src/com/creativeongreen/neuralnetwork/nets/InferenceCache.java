@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.Arrays;
+
+/**
+*
+* @author creativeongreen
+* 
+* Bounded memoization of net outputs keyed on (optionally quantized) input vectors, with CLOCK
+* eviction; emptied automatically whenever the net's weights change
+* 
+*/
+public class InferenceCache {
+
+	private static final String LOG_TAG = "NN_InferenceCache";
+
+	private final BackpropagationNet net;
+	private final int capacity;
+	private final int numInputs;
+	private final int numOutputs;
+	// grid spacing inputs are snapped to, 0.0 for exact keys
+	private final double quantum;
+
+	// entry e: key at keys[e * numInputs ..], output at values[e * numOutputs ..]
+	private final long[] keys;
+	private final double[] values;
+	private final int[] entryHashes;
+	private final int[] entrySlots;
+	private final boolean[] referenced;
+	private int size;
+	private int clockHand;
+
+	// open addressing table with linear probing, holds entry + 1, 0 marks a free slot
+	private final int[] table;
+	private final int tableMask;
+
+	private long weightsVersion;
+
+	// lookup buffers, the cache is used under its own lock
+	private final long[] key;
+	private final double[] snappedInput;
+	// one row batches for the stateless forward pass, feedForward() would clobber the
+	// activations of a net in training
+	private final double[][] inputRow = new double[1][];
+	private final double[][] outputRow;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public InferenceCache(BackpropagationNet net, int capacity, double quantum) {
+		if (capacity < 1)
+			throw new RuntimeException("InferenceCache: capacity must be >= 1.");
+		if (quantum < 0)
+			throw new RuntimeException("InferenceCache: quantum must be >= 0.");
+
+		this.net = net;
+		this.capacity = capacity;
+		this.numInputs = net.getNumInputNeurons();
+		this.numOutputs = net.getNumOutputNeurons();
+		this.quantum = quantum;
+
+		this.keys = new long[capacity * numInputs];
+		this.values = new double[capacity * numOutputs];
+		this.entryHashes = new int[capacity];
+		this.entrySlots = new int[capacity];
+		this.referenced = new boolean[capacity];
+
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		this.table = new int[tableSize];
+		this.tableMask = tableSize - 1;
+
+		this.key = new long[numInputs];
+		this.snappedInput = new double[numInputs];
+		this.outputRow = new double[1][numOutputs];
+		this.weightsVersion = net.getWeightsVersion();
+	}
+
+	/*
+	 * output[] = net output for input[], from the cache if present; with a quantum the net is
+	 * evaluated at input snapped to the grid, so every input of a grid cell gets the same output
+	 */
+	public synchronized void computeOutputs(double[] input, double[] output) {
+		if (net.getWeightsVersion() != weightsVersion) {
+			clear();
+			weightsVersion = net.getWeightsVersion();
+		}
+
+		int hash = 0x9e3779b9;
+		for (int i = 0; i < numInputs; i++) {
+			if (quantum > 0) {
+				key[i] = Math.round(input[i] / quantum);
+				snappedInput[i] = key[i] * quantum;
+			} else {
+				// + 0.0 folds -0.0 into 0.0
+				key[i] = Double.doubleToLongBits(input[i] + 0.0);
+			}
+			hash = 31 * hash + (int) (key[i] ^ (key[i] >>> 32));
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+
+		int slot = hash & tableMask;
+		while (table[slot] != 0) {
+			int entry = table[slot] - 1;
+			if (entryHashes[entry] == hash && keyEquals(entry)) {
+				hits++;
+				referenced[entry] = true;
+				System.arraycopy(values, entry * numOutputs, output, 0,
+						numOutputs);
+				return;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+
+		misses++;
+		int entry;
+		if (size < capacity) {
+			entry = size++;
+		} else {
+			entry = evict();
+			// the freed slot may have moved the probe chain of this key
+			slot = hash & tableMask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & tableMask;
+		}
+
+		inputRow[0] = quantum > 0 ? snappedInput : input;
+		net.computeOutputs(inputRow, null, 0, 1, outputRow);
+		inputRow[0] = null;
+		System.arraycopy(outputRow[0], 0, values, entry * numOutputs,
+				numOutputs);
+		System.arraycopy(key, 0, keys, entry * numInputs, numInputs);
+		entryHashes[entry] = hash;
+		entrySlots[entry] = slot;
+		referenced[entry] = false;
+		table[slot] = entry + 1;
+
+		System.arraycopy(values, entry * numOutputs, output, 0, numOutputs);
+	}
+
+	private boolean keyEquals(int entry) {
+		int offset = entry * numInputs;
+		for (int i = 0; i < numInputs; i++)
+			if (keys[offset + i] != key[i])
+				return false;
+		return true;
+	}
+
+	// CLOCK: sweep past recently used entries, clearing their flag, and evict the first unused
+	private int evict() {
+		while (referenced[clockHand]) {
+			referenced[clockHand] = false;
+			clockHand = (clockHand + 1) % capacity;
+		}
+		int entry = clockHand;
+		clockHand = (clockHand + 1) % capacity;
+		removeSlot(entrySlots[entry]);
+		evictions++;
+		return entry;
+	}
+
+	// backward shift deletion, keeps linear probe chains intact without tombstones
+	private void removeSlot(int slot) {
+		int free = slot;
+		int next = (slot + 1) & tableMask;
+		while (table[next] != 0) {
+			int entry = table[next] - 1;
+			int home = entryHashes[entry] & tableMask;
+			// move entry back if its home slot is not within (free, next]
+			if (((next - home) & tableMask) >= ((next - free) & tableMask)) {
+				table[free] = table[next];
+				entrySlots[entry] = free;
+				free = next;
+			}
+			next = (next + 1) & tableMask;
+		}
+		table[free] = 0;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(table, 0);
+		Arrays.fill(referenced, false);
+		size = 0;
+		clockHand = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+/**
+*
+* @author creativeongreen
+* 
+* Full-batch L-BFGS trainer working on the flattened weights of a BackpropagationNet
+* 
+*/
+public class LbfgsTrainer {
+
+	private static final String LOG_TAG = "NN_LbfgsTrainer";
+
+	public static final int DEFAULT_HISTORY_SIZE = 7;
+
+	// Armijo sufficient decrease constant and backtracking factor of the line search
+	private static final double LINE_SEARCH_C1 = 1e-4;
+	private static final double LINE_SEARCH_BACKTRACK = 0.5;
+	private static final int MAX_LINE_SEARCH_STEPS = 30;
+
+	private final BackpropagationNet net;
+	private final int historySize;
+	private final int numParams;
+
+	// all buffers are allocated once, nothing is allocated inside the iteration loop
+	private double[] params;
+	private double[] trialParams;
+	private double[] gradient;
+	private double[] trialGradient;
+	private final double[] direction;
+
+	// correction pairs s = x(t+1) - x(t), y = g(t+1) - g(t), kept as a ring of historySize
+	private final double[][] s;
+	private final double[][] y;
+	private final double[] rho;
+	private final double[] alpha;
+
+	private int iteration;
+	private double trainingError = 1;
+
+	public LbfgsTrainer(BackpropagationNet net) {
+		this(net, DEFAULT_HISTORY_SIZE);
+	}
+
+	public LbfgsTrainer(BackpropagationNet net, int historySize) {
+		if (historySize < 1)
+			throw new RuntimeException("LbfgsTrainer: history size must be >= 1.");
+
+		this.net = net;
+		this.historySize = historySize;
+		this.numParams = net.getParameterCount();
+
+		this.params = new double[numParams];
+		this.trialParams = new double[numParams];
+		this.gradient = new double[numParams];
+		this.trialGradient = new double[numParams];
+		this.direction = new double[numParams];
+		this.s = new double[historySize][numParams];
+		this.y = new double[historySize][numParams];
+		this.rho = new double[historySize];
+		this.alpha = new double[historySize];
+	}
+
+	/*
+	 * minimize the mean sample error of the whole training set until the MSE drops below the
+	 * net's global error, the net's max. epoch iterations are spent or stopTraining() is called
+	 */
+	public void train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) {
+
+		final double numSamples = inputTrainingSet.length;
+		final double globalError = net.getGlobalError();
+		final int maxIteration = net.getMaxEpoch();
+		// the objective is sum( 1/2 * sum( (expected[k] - output[k])^2 ) ) / samples, scaled
+		// to the MSE that BackpropagationNet and EvolutionTrainer compare to globalError
+		final double mseScale = 2.0 / net.getNumOutputNeurons();
+
+		net.getParameters(params);
+		double error = net.computeGradient(inputTrainingSet,
+				expectedTrainingSet, gradient) / numSamples;
+		scale(gradient, 1.0 / numSamples);
+
+		int historyCount = 0;
+		int historyHead = 0;
+		iteration = 0;
+
+		while (error * mseScale > globalError && iteration < maxIteration
+				&& !net.isStopRequested()) {
+
+			computeDirection(historyCount, historyHead);
+
+			double slope = dot(gradient, direction);
+			if (slope >= 0) {
+				// not a descent direction anymore, restart from steepest descent
+				historyCount = 0;
+				for (int i = 0; i < numParams; i++)
+					direction[i] = -gradient[i];
+				slope = dot(gradient, direction);
+			}
+			if (slope == 0)
+				break;
+
+			// first step has no curvature information, keep it at unit length
+			double step = (historyCount == 0) ? Math.min(1.0,
+					1.0 / Math.sqrt(-slope)) : 1.0;
+			double trialError = 0;
+			int lineSearchStep = 0;
+			for (; lineSearchStep < MAX_LINE_SEARCH_STEPS; lineSearchStep++) {
+				for (int i = 0; i < numParams; i++)
+					trialParams[i] = params[i] + step * direction[i];
+				net.setParameters(trialParams);
+				trialError = net.computeGradient(inputTrainingSet,
+						expectedTrainingSet, trialGradient) / numSamples;
+				if (trialError <= error + LINE_SEARCH_C1 * step * slope)
+					break;
+				step *= LINE_SEARCH_BACKTRACK;
+			}
+
+			if (lineSearchStep == MAX_LINE_SEARCH_STEPS) {
+				// no sufficient decrease along this direction, keep the current weights
+				net.setParameters(params);
+				if (historyCount == 0)
+					break;
+				historyCount = 0;
+				iteration++;
+				continue;
+			}
+			scale(trialGradient, 1.0 / numSamples);
+
+			// store correction pair, skipped when the curvature condition s'y > 0 fails;
+			// the ring slot is only written once the pair is accepted
+			double sy = 0;
+			for (int i = 0; i < numParams; i++)
+				sy += (trialParams[i] - params[i])
+						* (trialGradient[i] - gradient[i]);
+			if (sy > 1e-10) {
+				double[] sNew = s[historyHead];
+				double[] yNew = y[historyHead];
+				for (int i = 0; i < numParams; i++) {
+					sNew[i] = trialParams[i] - params[i];
+					yNew[i] = trialGradient[i] - gradient[i];
+				}
+				rho[historyHead] = 1.0 / sy;
+				historyHead = (historyHead + 1) % historySize;
+				if (historyCount < historySize)
+					historyCount++;
+			}
+
+			// accept step by swapping buffers
+			double[] swap = params;
+			params = trialParams;
+			trialParams = swap;
+			swap = gradient;
+			gradient = trialGradient;
+			trialGradient = swap;
+			error = trialError;
+
+			iteration++;
+		}
+
+		trainingError = error * mseScale;
+	}
+
+	/*
+	 * two-loop recursion, direction = -H * gradient where H is the inverse Hessian approximated
+	 * by the most recent correction pairs
+	 */
+	private void computeDirection(int historyCount, int historyHead) {
+		for (int i = 0; i < numParams; i++)
+			direction[i] = -gradient[i];
+
+		if (historyCount == 0)
+			return;
+
+		int index = historyHead;
+		for (int m = 0; m < historyCount; m++) {
+			index = (index - 1 + historySize) % historySize;
+			alpha[index] = rho[index] * dot(s[index], direction);
+			axpy(-alpha[index], y[index], direction);
+		}
+
+		// scale with gamma = s'y / y'y of the newest pair
+		int newest = (historyHead - 1 + historySize) % historySize;
+		scale(direction, 1.0 / (rho[newest] * dot(y[newest], y[newest])));
+
+		for (int m = 0; m < historyCount; m++) {
+			double beta = rho[index] * dot(y[index], direction);
+			axpy(alpha[index] - beta, s[index], direction);
+			index = (index + 1) % historySize;
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	// b += factor * a
+	private static void axpy(double factor, double[] a, double[] b) {
+		for (int i = 0; i < a.length; i++)
+			b[i] += factor * a[i];
+	}
+
+	private static void scale(double[] a, double factor) {
+		for (int i = 0; i < a.length; i++)
+			a[i] *= factor;
+	}
+
+	public int getIteration() {
+		return iteration;
+	}
+
+	// MSE over the whole training set after the last iteration
+	public double getTrainingError() {
+		return trainingError;
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* Race a number of independently seeded nets on a thread pool and keep the first one which
+* converges, the others are stopped right away
+* 
+*/
+public class MultiRestartTrainer {
+
+	private static final String LOG_TAG = "NN_MultiRestartTrainer";
+
+	private final ExecutorService executor;
+	private final int numRestarts;
+
+	private final int numInputNeurons;
+	private final int numHiddenNeurons;
+	private final int numOutputNeurons;
+	private final double learningRate;
+	private final double momentum;
+	private final double maxEpoch;
+	private final double globalError;
+
+	private final ArrayList<BackpropagationNet> nets = new ArrayList<BackpropagationNet>();
+	private volatile boolean forceStop = false;
+
+	public MultiRestartTrainer(ExecutorService executor, int numRestarts,
+			int numInputNeurons, int numHiddenNeurons, int numOutputNeurons,
+			double learningRate, double momentum, double epoch,
+			double globalError) {
+		if (numRestarts < 1)
+			throw new RuntimeException(
+					"MultiRestartTrainer: number of restarts must be >= 1.");
+
+		this.executor = executor;
+		this.numRestarts = numRestarts;
+		this.numInputNeurons = numInputNeurons;
+		this.numHiddenNeurons = numHiddenNeurons;
+		this.numOutputNeurons = numOutputNeurons;
+		this.learningRate = learningRate;
+		this.momentum = momentum;
+		this.maxEpoch = epoch;
+		this.globalError = globalError;
+	}
+
+	public BackpropagationNet train(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet) throws InterruptedException {
+		return train(inputTrainingSet, expectedTrainingSet, System.nanoTime());
+	}
+
+	/*
+	 * net k is seeded with seed + k; returns the first net which converged, or the one with the
+	 * lowest stop metric error if none did (all hit max. epoch or stopTraining() was called)
+	 */
+	public BackpropagationNet train(final double[][] inputTrainingSet,
+			final double[][] expectedTrainingSet, long seed)
+			throws InterruptedException {
+
+		CompletionService<BackpropagationNet> completionService = new ExecutorCompletionService<BackpropagationNet>(
+				executor);
+		ArrayList<Future<BackpropagationNet>> futures = new ArrayList<Future<BackpropagationNet>>();
+
+		synchronized (nets) {
+			nets.clear();
+			for (int k = 0; k < numRestarts; k++) {
+				BackpropagationNet net = new BackpropagationNet(
+						numInputNeurons, numHiddenNeurons, numOutputNeurons,
+						learningRate, momentum, maxEpoch, globalError, seed + k);
+				// a stop issued just before train() ends this run at once
+				if (forceStop)
+					net.stopTraining();
+				nets.add(net);
+			}
+		}
+
+		for (int k = 0; k < numRestarts; k++) {
+			final BackpropagationNet net;
+			synchronized (nets) {
+				net = nets.get(k);
+			}
+			futures.add(completionService
+					.submit(new Callable<BackpropagationNet>() {
+						@Override
+						public BackpropagationNet call() {
+							net.train(inputTrainingSet, expectedTrainingSet);
+							return net;
+						}
+					}));
+		}
+
+		BackpropagationNet bestNet = null;
+		try {
+			for (int k = 0; k < numRestarts; k++) {
+				BackpropagationNet net = completionService.take().get();
+				if (net.hasConverged()) {
+					bestNet = net;
+					break;
+				}
+				if (bestNet == null
+						|| net.getStopMetricError() < bestNet
+								.getStopMetricError())
+					bestNet = net;
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("train: restart failed", e.getCause());
+		} finally {
+			// losers quit on their next sample, queued ones never start; the stop flag is
+			// cleared once the run is over, so the next train() starts afresh
+			synchronized (nets) {
+				for (int k = 0; k < nets.size(); k++)
+					if (nets.get(k) != bestNet)
+						nets.get(k).stopTraining();
+				forceStop = false;
+			}
+			for (int k = 0; k < futures.size(); k++)
+				futures.get(k).cancel(false);
+		}
+
+		return bestNet;
+	}
+
+	// ends the train() run under way, or the next one at once if none is
+	public void stopTraining() {
+		synchronized (nets) {
+			forceStop = true;
+			for (int k = 0; k < nets.size(); k++)
+				nets.get(k).stopTraining();
+		}
+	}
+
+}
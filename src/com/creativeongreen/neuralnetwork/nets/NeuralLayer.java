@@ -23,6 +23,8 @@
 package com.creativeongreen.neuralnetwork.nets;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
 import android.util.Log;
 
 import com.creativeongreen.neuralnetwork.activation.ActivationFunction;
@@ -37,7 +39,7 @@ import com.creativeongreen.neuralnetwork.util.WeightMatrix;
 */
 public class NeuralLayer implements Serializable {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
 	private static final String LOG_TAG = "NN_NeuralLayer";
 
@@ -54,17 +56,40 @@ public class NeuralLayer implements Serializable {
 	// weight matrix [2 x 3] means previous layer have 2 nodes, and current layer have 3 nodes
 	// {w00, w01, w02}
 	// {w10, w11, w12}
-	private WeightMatrix matrixWeight;
+	// stored row-major at weights[weightOffset + j * n + k], the buffer may hold the weights
+	// of all layers of a net one after the other
+	private double[] weights;
+	private int weightOffset;
+	private int weightRows;
 
-	// changed weight for momentum
+	// changed weight for momentum, same layout as weights
 	// {cw00, cw01, cw02}
 	// {cw10, cw11, cw12}
-	private WeightMatrix matrixChangedWeight;
+	private double[] changedWeights;
 
 	private ActivationFunction activationFunction;
 
 	public NeuralLayer(final ActivationFunction activationFunction,
 			final double bias, final int count, NeuralLayer prevLayer) {
+		this(activationFunction, bias, count, prevLayer, null);
+	}
+
+	// random is used to initialize weights, Math.random() if null
+	public NeuralLayer(final ActivationFunction activationFunction,
+			final double bias, final int count, NeuralLayer prevLayer,
+			Random random) {
+		this(activationFunction, bias, count, prevLayer, null, null, 0, random);
+	}
+
+	/*
+	 * weights and changedWeights are shared parameter buffers of a whole net, this layer uses
+	 * [offset, offset + prevLayer.getOutputWidth() * count); null buffers are allocated for this
+	 * layer alone
+	 */
+	public NeuralLayer(final ActivationFunction activationFunction,
+			final double bias, final int count, NeuralLayer prevLayer,
+			double[] weights, double[] changedWeights, int offset,
+			Random random) {
 		this.activationFunction = activationFunction;
 		this.hasBias = (bias == 1.0) ? true : false;
 		int iBias = this.hasBias ? 1 : 0;
@@ -77,13 +102,17 @@ public class NeuralLayer implements Serializable {
 
 		// construct weight matrix
 		if (prevLayer != null) {
-			iBias = prevLayer.hasBias ? 1 : 0;
-			this.matrixWeight = new WeightMatrix(prevLayer.neuronCount + iBias,
-					this.neuronCount);
-			this.matrixWeight.initialize();
-			//this.matrixWeight.print();
-			this.matrixChangedWeight = new WeightMatrix(prevLayer.neuronCount
-					+ iBias, this.neuronCount);
+			this.weightRows = prevLayer.getOutputWidth();
+			int weightCount = this.weightRows * this.neuronCount;
+			if (weights == null) {
+				weights = new double[weightCount];
+				changedWeights = new double[weightCount];
+				offset = 0;
+			}
+			this.weights = weights;
+			this.changedWeights = changedWeights;
+			this.weightOffset = offset;
+			initializeWeights(random);
 		}
 
 		/*
@@ -99,8 +128,20 @@ public class NeuralLayer implements Serializable {
 		NeuralLayer.setId(NeuralLayer.getId() + 1);
 	}
 
-	public WeightMatrix getWeightMatrix() {
-		return this.matrixWeight;
+	/*
+	 * snapshot of the weights as a [(prev + bias) x n] matrix, null for the input layer; the
+	 * weights live in the net's parameter buffer, changes to the copy do not reach the layer
+	 */
+	public WeightMatrix copyWeightMatrix() {
+		if (this.weights == null)
+			return null;
+		WeightMatrix matrix = new WeightMatrix(this.weightRows,
+				this.neuronCount);
+		double[][] rows = matrix.getMatrix();
+		for (int j = 0; j < this.weightRows; j++)
+			System.arraycopy(this.weights, this.weightOffset + j
+					* this.neuronCount, rows[j], 0, this.neuronCount);
+		return matrix;
 	}
 
 	public WeightMatrix getOutputs() {
@@ -124,12 +165,55 @@ public class NeuralLayer implements Serializable {
 
 		else {
 			// this is the hidden layer or output layer
+			// sum in place, row by row of the weights so that they are read in memory order
 			NeuralLayer prevLayer = NeuralLayer.class.cast(object);
-			WeightMatrix sumWeights = prevLayer.matrixNeuronOutput
-					.times(this.matrixWeight);
-			for (int j = 0; j < this.neuronCount; j++)
-				(this.matrixNeuronOutput.getMatrix())[0][j] = this.activationFunction
-						.activate((sumWeights.getMatrix())[0][j]);
+			double[] prevOutputs = (prevLayer.matrixNeuronOutput.getMatrix())[0];
+			double[] outputs = (this.matrixNeuronOutput.getMatrix())[0];
+			double[] weights = this.weights;
+			int n = this.neuronCount;
+
+			Arrays.fill(outputs, 0, n, 0);
+			for (int i = 0; i < prevOutputs.length; i++) {
+				double prevOutput = prevOutputs[i];
+				int row = this.weightOffset + i * n;
+				for (int j = 0; j < n; j++)
+					outputs[j] += prevOutput * weights[row + j];
+			}
+			for (int j = 0; j < n; j++)
+				outputs[j] = this.activationFunction.activate(outputs[j]);
+		}
+	}
+
+	/*
+	 * batch version of computeOutputs() for rows x prevWidth matrix prevBatch (row-major, bias
+	 * column included), writes the rows x getOutputWidth() result into batch; reads weights only
+	 */
+	public void computeBatchOutputs(double[] prevBatch, int prevWidth,
+			int rows, double[] batch) {
+		computeBatchOutputs(prevBatch, 0, prevWidth, rows, batch, 0);
+	}
+
+	// as above with the matrices starting at prevBatch[prevOffset] and batch[offset]
+	public void computeBatchOutputs(double[] prevBatch, int prevOffset,
+			int prevWidth, int rows, double[] batch, int offset) {
+		double[] weights = this.weights;
+		int n = this.neuronCount;
+		int width = getOutputWidth();
+
+		for (int r = 0; r < rows; r++) {
+			int prevRow = prevOffset + r * prevWidth;
+			int row = offset + r * width;
+			Arrays.fill(batch, row, row + n, 0);
+			for (int i = 0; i < prevWidth; i++) {
+				double prevOutput = prevBatch[prevRow + i];
+				int weightRow = this.weightOffset + i * n;
+				for (int j = 0; j < n; j++)
+					batch[row + j] += prevOutput * weights[weightRow + j];
+			}
+			for (int j = 0; j < n; j++)
+				batch[row + j] = this.activationFunction.activate(batch[row + j]);
+			if (this.hasBias)
+				batch[row + n] = 1.0;
 		}
 	}
 
@@ -137,38 +221,44 @@ public class NeuralLayer implements Serializable {
 	 * compute error gradient - for output layer delta[k] = ( expected[k] - output[k] ) *
 	 * derivative(output[k]) - for others layers delta[j] = sum( w[j][k] * delta[k] ) *
 	 * derivative(output[j])
+	 * 
+	 * returns sum( (expected[k] - output[k])^2 ) for the output layer, which comes for free
+	 * here, 0 for other layers
 	 */
-	public void computeLayerDeltas(Object object) {
+	public double computeLayerDeltas(Object object) {
+		double sumSquaredError = 0;
+		double[] outputs = (this.matrixNeuronOutput.getMatrix())[0];
+		double[] deltas = (this.matrixNeuronDelta.getMatrix())[0];
+
 		if (object instanceof double[]) {
 			// compute output layer deltas
 			double[] expected = double[].class.cast(object);
 			for (int k = 0; k < this.neuronCount; k++) {
-				double outputK = (this.matrixNeuronOutput.getMatrix())[0][k];
-				(matrixNeuronDelta.getMatrix())[0][k] = (expected[k] - outputK)
-						* this.activationFunction.derivative(outputK);
+				double outputK = outputs[k];
+				double offset = expected[k] - outputK;
+				deltas[k] = offset * this.activationFunction.derivative(outputK);
+				sumSquaredError += offset * offset;
 			}
 
 		} else {
-			// compute hidden layer deltas
+			// compute hidden layer deltas, the bias output has no delta and the next layer's
+			// bias output has no weights from this layer
 			NeuralLayer nextLayer = NeuralLayer.class.cast(object);
-			int jBias = this.hasBias ? 1 : 0;
-			int kBias = nextLayer.hasBias ? 1 : 0;
-			double sumDeltaWeight = 0;
-
-			for (int j = 0; j < this.neuronCount + jBias; j++) {
-				for (int k = 0; k < nextLayer.neuronCount + kBias; k++) {
-					double toNextLayerNeuronWeight = (nextLayer.matrixWeight
-							.getMatrix())[j][k];
-					double nextLayerNeuronDelta = (nextLayer.matrixNeuronDelta
-							.getMatrix())[0][k];
-					sumDeltaWeight += (toNextLayerNeuronWeight * nextLayerNeuronDelta);
-				}
-
-				double outputJ = (this.matrixNeuronOutput.getMatrix())[0][j];
-				(matrixNeuronDelta.getMatrix())[0][j] = sumDeltaWeight
-						* this.activationFunction.derivative(outputJ);
+			double[] nextWeights = nextLayer.weights;
+			double[] nextDeltas = (nextLayer.matrixNeuronDelta.getMatrix())[0];
+			int nextCount = nextLayer.neuronCount;
+			for (int j = 0; j < this.neuronCount; j++) {
+				double sumDeltaWeight = 0;
+				int row = nextLayer.weightOffset + j * nextCount;
+				for (int k = 0; k < nextCount; k++)
+					sumDeltaWeight += nextWeights[row + k] * nextDeltas[k];
+
+				deltas[j] = sumDeltaWeight
+						* this.activationFunction.derivative(outputs[j]);
 			}
 		}
+
+		return sumSquaredError;
 	}
 
 	/*
@@ -177,33 +267,121 @@ public class NeuralLayer implements Serializable {
 	 */
 	public void updateWeights(NeuralLayer prevLayer, double learningRate,
 			double momentum) {
-		int jBias = prevLayer.hasBias ? 1 : 0;
+		double[] prevOutputs = (prevLayer.matrixNeuronOutput.getMatrix())[0];
+		double[] deltas = (this.matrixNeuronDelta.getMatrix())[0];
+		double[] weights = this.weights;
+		double[] changedWeights = this.changedWeights;
+		int n = this.neuronCount;
 
-		for (int k = 0; k < this.neuronCount; k++) {
-			for (int j = 0; j < prevLayer.neuronCount + jBias; j++) {
-				double prevLayerOutput = (prevLayer.matrixNeuronOutput
-						.getMatrix())[0][j];
-				double deltaWeight = learningRate * prevLayerOutput
-						* (this.matrixNeuronDelta.getMatrix())[0][k];
-				(this.matrixWeight.getMatrix())[j][k] += (deltaWeight + momentum
-						* (this.matrixChangedWeight.getMatrix())[j][k]);
+		for (int j = 0; j < this.weightRows; j++) {
+			double rate = learningRate * prevOutputs[j];
+			int row = this.weightOffset + j * n;
+			for (int k = 0; k < n; k++) {
+				double deltaWeight = rate * deltas[k];
+				weights[row + k] += deltaWeight + momentum
+						* changedWeights[row + k];
 				// keep current deltaWeight in order for being used on next momentum computation
-				(this.matrixChangedWeight.getMatrix())[j][k] = deltaWeight;
+				changedWeights[row + k] = deltaWeight;
 			}
 		}
 	}
 
+	/*
+	 * gradient of E = 1/2 * sum( (expected[k] - output[k])^2 ) with respect to w[j][k], i.e.
+	 * dE/dw[j][k] = -output[j] * delta[k], added into gradient[offset + j * n + k] where n is the
+	 * number of neurons on current layer; computeLayerDeltas() must have been called first
+	 */
+	public void accumulateGradient(NeuralLayer prevLayer, double[] gradient,
+			int offset) {
+		double[] prevOutputs = (prevLayer.matrixNeuronOutput.getMatrix())[0];
+		double[] deltas = (this.matrixNeuronDelta.getMatrix())[0];
+
+		for (int j = 0; j < this.weightRows; j++) {
+			int index = offset + j * this.neuronCount;
+			for (int k = 0; k < this.neuronCount; k++)
+				gradient[index + k] -= prevOutputs[j] * deltas[k];
+		}
+	}
+
+	// draw weights (-1.0 ~ 1.0) row by row, Math.random() if random is null
+	private void initializeWeights(Random random) {
+		int end = this.weightOffset + getWeightCount();
+		for (int w = this.weightOffset; w < end; w++)
+			this.weights[w] = 2.0 * ((random == null) ? Math.random() : random
+					.nextDouble()) - 1.0;
+	}
+
+	// redraw weights in place (-1.0 ~ 1.0) and forget momentum history
+	public void reinitializeWeights(Random random) {
+		if (this.weights == null)
+			return;
+		initializeWeights(random);
+		clearMomentum();
+	}
+
+	// add uniform noise (-scale ~ scale) to weights in place and forget momentum history
+	public void perturbWeights(Random random, double scale) {
+		if (this.weights == null)
+			return;
+		int end = this.weightOffset + getWeightCount();
+		for (int w = this.weightOffset; w < end; w++)
+			this.weights[w] += scale * (2.0 * random.nextDouble() - 1.0);
+		clearMomentum();
+	}
+
+	private void clearMomentum() {
+		Arrays.fill(this.changedWeights, this.weightOffset, this.weightOffset
+				+ getWeightCount(), 0);
+	}
+
+	// number of neuron outputs (bias excluded) closer than margin to 0.0 or 1.0
+	public int countSaturatedOutputs(double margin) {
+		double[] outputs = (this.matrixNeuronOutput.getMatrix())[0];
+		int count = 0;
+		for (int j = 0; j < this.neuronCount; j++)
+			if (outputs[j] < margin || outputs[j] > 1.0 - margin)
+				count++;
+		return count;
+	}
+
+	public ActivationFunction getActivationFunction() {
+		return this.activationFunction;
+	}
+
+	// number of weights feeding this layer, 0 for the input layer
+	public int getWeightCount() {
+		return this.weightRows * this.neuronCount;
+	}
+
+	// position of this layer's weights in the parameter buffer
+	public int getWeightOffset() {
+		return this.weightOffset;
+	}
+
 	public double computeTrainingError(double[] expected) {
 		double sumError = 0;
 		for (int k = 0; k < this.neuronCount; k++) {
 			double offset = expected[k]
 					- (this.matrixNeuronOutput.getMatrix())[0][k];
-			sumError += Math.pow(offset, 2);
+			sumError += offset * offset;
 		}
 
 		return sumError / 2.0;
 	}
 
+	public int getNeuronCount() {
+		return this.neuronCount;
+	}
+
+	public boolean hasBias() {
+		return this.hasBias;
+	}
+
+	// number of outputs including the bias output
+	public int getOutputWidth() {
+		return this.neuronCount + (this.hasBias ? 1 : 0);
+	}
+
 	public static int getId() {
 		return id;
 	}
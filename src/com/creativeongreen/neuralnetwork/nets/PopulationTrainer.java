@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+*
+* @author creativeongreen
+* 
+* Trains a population of same-topology sigmoid nets (input-hidden-output, as the classic
+* BackpropagationNet constructor builds) in lockstep, e.g. for restarts or hyperparameter sweeps;
+* the same weight of all nets is stored side by side, so that every step is a loop over the nets
+* 
+*/
+public class PopulationTrainer {
+
+	private static final String LOG_TAG = "NN_PopulationTrainer";
+
+	private final int numInputs;
+	private final int numHidden;
+	private final int numOutputs;
+	private final int populationSize;
+
+	// weight slot s of the net in lane n at weights[s * populationSize + n], slots laid out as
+	// BackpropagationNet.getParameters(): hidden layer [input + bias][hidden] then output layer
+	// [hidden + bias][output]; same layout for the momentum history
+	private final int numSlots;
+	private final int outputSlot;
+	private final double[] weights;
+	private final double[] changedWeights;
+
+	// per lane, lanes [0, activeCount) hold the nets still training, converged nets are swapped
+	// behind them so that the loops stay dense
+	private final double[] learningRates;
+	private final double[] momentums;
+	private final double[] sumSquaredErrors;
+	private final int[] laneNets;
+	private int activeCount;
+
+	// per net
+	private final int[] netLanes;
+	private final int[] epochs;
+	private final double[] epochMSEs;
+	private final boolean[] converged;
+
+	// neuron j of all lanes at [j * populationSize ..]
+	private final double[] hiddenOutputs;
+	private final double[] outputs;
+	private final double[] hiddenDeltas;
+	private final double[] outputDeltas;
+	private final double[] sampleErrors;
+
+	private double maxEpoch = 10000;
+	private double globalError = 0.00001;
+	// written by other threads through stopTraining()
+	private volatile boolean forceStop = false;
+
+	public PopulationTrainer(int numInputNeurons, int numHiddenNeurons,
+			int numOutputNeurons, int populationSize, double learningRate,
+			double momentum) {
+		if (numInputNeurons < 1 || numHiddenNeurons < 1 || numOutputNeurons < 1)
+			throw new IllegalArgumentException(
+					"PopulationTrainer: every layer needs at least 1 neuron.");
+		if (populationSize < 1)
+			throw new IllegalArgumentException(
+					"PopulationTrainer: population size must be >= 1.");
+
+		this.numInputs = numInputNeurons;
+		this.numHidden = numHiddenNeurons;
+		this.numOutputs = numOutputNeurons;
+		this.populationSize = populationSize;
+
+		this.outputSlot = (numInputs + 1) * numHidden;
+		this.numSlots = outputSlot + (numHidden + 1) * numOutputs;
+		this.weights = new double[numSlots * populationSize];
+		this.changedWeights = new double[numSlots * populationSize];
+
+		this.learningRates = new double[populationSize];
+		this.momentums = new double[populationSize];
+		this.sumSquaredErrors = new double[populationSize];
+		this.laneNets = new int[populationSize];
+		this.netLanes = new int[populationSize];
+		this.epochs = new int[populationSize];
+		this.epochMSEs = new double[populationSize];
+		this.converged = new boolean[populationSize];
+		Arrays.fill(learningRates, learningRate);
+		Arrays.fill(momentums, momentum);
+		Arrays.fill(epochMSEs, Double.MAX_VALUE);
+		for (int n = 0; n < populationSize; n++) {
+			laneNets[n] = n;
+			netLanes[n] = n;
+		}
+
+		this.hiddenOutputs = new double[numHidden * populationSize];
+		this.outputs = new double[numOutputs * populationSize];
+		this.hiddenDeltas = new double[numHidden * populationSize];
+		this.outputDeltas = new double[numOutputs * populationSize];
+		this.sampleErrors = new double[populationSize];
+	}
+
+	// net n gets the weights of new BackpropagationNet(.., seed + n)
+	public void initializeWeights(long seed) {
+		for (int net = 0; net < populationSize; net++)
+			initializeWeights(net, new Random(seed + net));
+	}
+
+	// draw weights (-1.0 ~ 1.0) in the order BackpropagationNet does, forget momentum history
+	public void initializeWeights(int net, Random random) {
+		int lane = netLanes[net];
+		for (int s = 0; s < numSlots; s++) {
+			weights[s * populationSize + lane] = 2.0 * random.nextDouble() - 1.0;
+			changedWeights[s * populationSize + lane] = 0;
+		}
+	}
+
+	/*
+	 * train every net on the same training set, samples in their natural order, until its
+	 * epoch MSE reaches globalError or maxEpoch epochs are done; each sample step runs the
+	 * updates of BackpropagationNet.backPropagation() for all nets still training, so every net
+	 * ends up with the weights it would have got when trained on its own
+	 */
+	public void train(double[][] inputTrainingSet, double[][] expectedTrainingSet) {
+		if (inputTrainingSet[0].length != numInputs
+				|| expectedTrainingSet[0].length != numOutputs)
+			throw new RuntimeException(
+					"train: data set dimensions not match number of input/output neurons.");
+
+		int numSamples = inputTrainingSet.length;
+		activeCount = populationSize;
+		Arrays.fill(epochs, 0);
+		Arrays.fill(epochMSEs, Double.MAX_VALUE);
+		Arrays.fill(converged, false);
+
+		int epoch = 0;
+		try {
+			while (activeCount > 0 && epoch < maxEpoch && !forceStop) {
+				Arrays.fill(sumSquaredErrors, 0, activeCount, 0);
+				for (int sample = 0; sample < numSamples; sample++) {
+					feedForward(inputTrainingSet[sample], activeCount);
+					backPropagation(inputTrainingSet[sample],
+							expectedTrainingSet[sample], activeCount);
+				}
+				epoch++;
+				endEpoch(epoch, numSamples);
+			}
+		} finally {
+			// cleared once the run is over, so a stop issued just before train() is not lost
+			forceStop = false;
+		}
+	}
+
+	// record each active net's epoch error and retire the converged ones
+	private void endEpoch(int epoch, int numSamples) {
+		// from the back, so a lane swapped in from the end has been handled already
+		for (int lane = activeCount - 1; lane >= 0; lane--) {
+			int net = laneNets[lane];
+			epochs[net] = epoch;
+			epochMSEs[net] = sumSquaredErrors[lane] / (numSamples * numOutputs);
+			if (epochMSEs[net] <= globalError) {
+				converged[net] = true;
+				swapLanes(lane, --activeCount);
+			}
+		}
+	}
+
+	private void swapLanes(int a, int b) {
+		if (a == b)
+			return;
+		for (int s = 0; s < numSlots; s++) {
+			int i = s * populationSize;
+			swap(weights, i + a, i + b);
+			swap(changedWeights, i + a, i + b);
+		}
+		swap(learningRates, a, b);
+		swap(momentums, a, b);
+		swap(sumSquaredErrors, a, b);
+
+		int netA = laneNets[a];
+		int netB = laneNets[b];
+		laneNets[a] = netB;
+		laneNets[b] = netA;
+		netLanes[netA] = b;
+		netLanes[netB] = a;
+	}
+
+	private static void swap(double[] values, int a, int b) {
+		double value = values[a];
+		values[a] = values[b];
+		values[b] = value;
+	}
+
+	// outputs of lanes [0, lanes) for input[], summed in the order NeuralLayer.computeOutputs() uses
+	private void feedForward(double[] input, int lanes) {
+		final int size = populationSize;
+
+		for (int j = 0; j < numHidden; j++) {
+			int target = j * size;
+			Arrays.fill(hiddenOutputs, target, target + lanes, 0);
+			for (int i = 0; i <= numInputs; i++) {
+				int row = (i * numHidden + j) * size;
+				if (i < numInputs) {
+					double x = input[i];
+					for (int n = 0; n < lanes; n++)
+						hiddenOutputs[target + n] += x * weights[row + n];
+				} else {
+					// bias
+					for (int n = 0; n < lanes; n++)
+						hiddenOutputs[target + n] += weights[row + n];
+				}
+			}
+			for (int n = target; n < target + lanes; n++)
+				hiddenOutputs[n] = sigmoid(hiddenOutputs[n]);
+		}
+
+		for (int k = 0; k < numOutputs; k++) {
+			int target = k * size;
+			Arrays.fill(outputs, target, target + lanes, 0);
+			for (int j = 0; j <= numHidden; j++) {
+				int row = (outputSlot + j * numOutputs + k) * size;
+				if (j < numHidden) {
+					int source = j * size;
+					for (int n = 0; n < lanes; n++)
+						outputs[target + n] += hiddenOutputs[source + n]
+								* weights[row + n];
+				} else {
+					for (int n = 0; n < lanes; n++)
+						outputs[target + n] += weights[row + n];
+				}
+			}
+			for (int n = target; n < target + lanes; n++)
+				outputs[n] = sigmoid(outputs[n]);
+		}
+	}
+
+	/*
+	 * deltas and weight updates of lanes [0, lanes) in BackpropagationNet's order: the output
+	 * layer is updated before the hidden deltas are computed from its weights
+	 */
+	private void backPropagation(double[] input, double[] expected, int lanes) {
+		final int size = populationSize;
+
+		Arrays.fill(sampleErrors, 0, lanes, 0);
+		for (int k = 0; k < numOutputs; k++) {
+			int base = k * size;
+			double target = expected[k];
+			for (int n = 0; n < lanes; n++) {
+				double output = outputs[base + n];
+				double offset = target - output;
+				outputDeltas[base + n] = offset * (output * (1.0 - output));
+				sampleErrors[n] += offset * offset;
+			}
+		}
+		for (int n = 0; n < lanes; n++)
+			sumSquaredErrors[n] += sampleErrors[n];
+
+		for (int j = 0; j <= numHidden; j++) {
+			int source = j * size;
+			for (int k = 0; k < numOutputs; k++) {
+				int row = (outputSlot + j * numOutputs + k) * size;
+				int delta = k * size;
+				for (int n = 0; n < lanes; n++) {
+					double rate = learningRates[n]
+							* ((j < numHidden) ? hiddenOutputs[source + n] : 1.0);
+					double deltaWeight = rate * outputDeltas[delta + n];
+					weights[row + n] += deltaWeight + momentums[n]
+							* changedWeights[row + n];
+					changedWeights[row + n] = deltaWeight;
+				}
+			}
+		}
+
+		for (int j = 0; j < numHidden; j++) {
+			int target = j * size;
+			Arrays.fill(hiddenDeltas, target, target + lanes, 0);
+			for (int k = 0; k < numOutputs; k++) {
+				int row = (outputSlot + j * numOutputs + k) * size;
+				int delta = k * size;
+				for (int n = 0; n < lanes; n++)
+					hiddenDeltas[target + n] += weights[row + n]
+							* outputDeltas[delta + n];
+			}
+			for (int n = target; n < target + lanes; n++)
+				hiddenDeltas[n] *= hiddenOutputs[n] * (1.0 - hiddenOutputs[n]);
+		}
+
+		for (int i = 0; i <= numInputs; i++) {
+			double x = (i < numInputs) ? input[i] : 1.0;
+			for (int j = 0; j < numHidden; j++) {
+				int row = (i * numHidden + j) * size;
+				int delta = j * size;
+				for (int n = 0; n < lanes; n++) {
+					double deltaWeight = learningRates[n] * x
+							* hiddenDeltas[delta + n];
+					weights[row + n] += deltaWeight + momentums[n]
+							* changedWeights[row + n];
+					changedWeights[row + n] = deltaWeight;
+				}
+			}
+		}
+	}
+
+	// same expression as SigmoidActivation
+	private static double sigmoid(double x) {
+		return 1.0 / (1 + Math.exp(-1.0 * x));
+	}
+
+	// weights of net into params[], laid out as BackpropagationNet.getParameters()
+	public void getParameters(int net, double[] params) {
+		int lane = netLanes[net];
+		for (int s = 0; s < numSlots; s++)
+			params[s] = weights[s * populationSize + lane];
+	}
+
+	// resets the net's momentum history as it no longer applies
+	public void setParameters(int net, double[] params) {
+		int lane = netLanes[net];
+		for (int s = 0; s < numSlots; s++) {
+			weights[s * populationSize + lane] = params[s];
+			changedWeights[s * populationSize + lane] = 0;
+		}
+	}
+
+	// a stand-alone copy of net, e.g. to go on training it or to freeze() it
+	public BackpropagationNet newNet(int net) {
+		BackpropagationNet copy = new BackpropagationNet(numInputs, numHidden,
+				numOutputs, getLearningRate(net), getMomentum(net), maxEpoch,
+				globalError);
+		double[] params = new double[numSlots];
+		getParameters(net, params);
+		copy.setParameters(params);
+		return copy;
+	}
+
+	public void setLearningRate(int net, double learningRate) {
+		learningRates[netLanes[net]] = learningRate;
+	}
+
+	public double getLearningRate(int net) {
+		return learningRates[netLanes[net]];
+	}
+
+	public void setMomentum(int net, double momentum) {
+		momentums[netLanes[net]] = momentum;
+	}
+
+	public double getMomentum(int net) {
+		return momentums[netLanes[net]];
+	}
+
+	public void setMaxEpoch(double epoch) {
+		this.maxEpoch = epoch;
+	}
+
+	public void setGlobalError(double globalError) {
+		this.globalError = globalError;
+	}
+
+	// epochs net trained in the last train() call
+	public int getEpoch(int net) {
+		return epochs[net];
+	}
+
+	public double getEpochMSE(int net) {
+		return epochMSEs[net];
+	}
+
+	public boolean hasConverged(int net) {
+		return converged[net];
+	}
+
+	public int getConvergedCount() {
+		int count = 0;
+		for (int net = 0; net < populationSize; net++)
+			if (converged[net])
+				count++;
+		return count;
+	}
+
+	public int getPopulationSize() {
+		return populationSize;
+	}
+
+	public int getParameterCount() {
+		return numSlots;
+	}
+
+	// ends the train() run under way, or the next one at once if none is
+	public void stopTraining() {
+		forceStop = true;
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+/**
+*
+* @author creativeongreen
+* 
+* Detect training runs stuck on a plateau or in a local minimum and restart them in place
+* 
+*/
+public class StagnationDetector {
+
+	private static final String LOG_TAG = "NN_StagnationDetector";
+
+	// what to do with the weights of a stagnated net
+	public static final int ACTION_REINITIALIZE = 0;
+	public static final int ACTION_PERTURB = 1;
+
+	private final int windowSize;
+	private final double[] window;
+	private int windowCount;
+	private int windowHead;
+	// a full window is judged every quarter window epochs, which keeps the per epoch cost O(1)
+	private final int checkInterval;
+	private int epochsSinceCheck;
+
+	// relative error slope per epoch above which the net counts as stagnated
+	private double plateauSlope = -1e-5;
+	// looser slope limit which applies when most hidden outputs are saturated while the error
+	// is still high, a solved net saturates its hidden outputs as well
+	private double saturatedSlope = -1e-4;
+	private double saturatedError = 0.05;
+	private double saturationMargin = 0.02;
+	private double saturationThreshold = 0.8;
+
+	private int action = ACTION_REINITIALIZE;
+	private double perturbScale = 0.5;
+
+	private int restartCount;
+
+	public StagnationDetector(int windowSize) {
+		if (windowSize < 2)
+			throw new RuntimeException(
+					"StagnationDetector: window size must be >= 2.");
+		this.windowSize = windowSize;
+		this.window = new double[windowSize];
+		this.checkInterval = Math.max(1, windowSize / 4);
+	}
+
+	/*
+	 * record the epoch MSE, once a full window is collected its least squares slope relative to
+	 * the mean error decides: flatter than plateauSlope means a plateau, flatter than
+	 * saturatedSlope together with saturated hidden outputs means a local minimum; without
+	 * inputTrainingSet (streamed data sets) only plateaus are detected
+	 */
+	void onEpoch(BackpropagationNet net, double[][] inputTrainingSet) {
+		window[windowHead] = net.getEpochMSE();
+		windowHead = (windowHead + 1) % windowSize;
+		if (windowCount < windowSize) {
+			windowCount++;
+			return;
+		}
+		if (++epochsSinceCheck < checkInterval)
+			return;
+		epochsSinceCheck = 0;
+
+		double slope = computeRelativeSlope();
+		if (slope > saturatedSlope) {
+			boolean stagnated = slope > plateauSlope
+					|| (inputTrainingSet != null
+							&& net.getEpochMSE() > saturatedError && net
+							.computeHiddenSaturation(inputTrainingSet,
+									saturationMargin) >= saturationThreshold);
+			if (stagnated) {
+				if (action == ACTION_PERTURB)
+					net.perturbWeights(perturbScale);
+				else
+					net.reinitializeWeights();
+				restartCount++;
+				// give the restarted net a full window before judging it again
+				windowCount = 0;
+			}
+		}
+	}
+
+	// slope of the error over the window (oldest first) divided by the mean error
+	private double computeRelativeSlope() {
+		double meanX = (windowSize - 1) / 2.0;
+		double sumY = 0;
+		double sumXY = 0;
+		double sumXX = 0;
+
+		for (int x = 0; x < windowSize; x++) {
+			double y = window[(windowHead + x) % windowSize];
+			sumY += y;
+			sumXY += (x - meanX) * y;
+			sumXX += (x - meanX) * (x - meanX);
+		}
+
+		double meanY = sumY / windowSize;
+		if (meanY == 0)
+			return 0;
+		return (sumXY / sumXX) / meanY;
+	}
+
+	public void setPlateauSlope(double plateauSlope) {
+		this.plateauSlope = plateauSlope;
+	}
+
+	/*
+	 * a net whose fraction of hidden outputs within margin of 0.0 or 1.0 reaches threshold, while
+	 * its MSE is above error and its slope above slope, counts as stuck in a local minimum
+	 */
+	public void setSaturation(double margin, double threshold, double error,
+			double slope) {
+		this.saturationMargin = margin;
+		this.saturationThreshold = threshold;
+		this.saturatedError = error;
+		this.saturatedSlope = slope;
+	}
+
+	// ACTION_REINITIALIZE, or ACTION_PERTURB with uniform noise of (-scale ~ scale)
+	public void setAction(int action, double perturbScale) {
+		this.action = action;
+		this.perturbScale = perturbScale;
+	}
+
+	public int getRestartCount() {
+		return restartCount;
+	}
+
+	public void reset() {
+		windowCount = 0;
+		windowHead = 0;
+		epochsSinceCheck = 0;
+		restartCount = 0;
+	}
+
+}
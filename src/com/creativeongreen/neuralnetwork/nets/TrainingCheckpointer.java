@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+*
+* @author creativeongreen
+* 
+* Periodic checkpoints of a BackpropagationNet training run: weights, momentum history, epoch
+* and shuffle generator state; the training thread only copies the state into one of two
+* buffers, a background thread writes it to disk
+* 
+* file layout, little endian:
+* 	header (40 bytes): magic "NNCK", version, numInputs, numHidden, numOutputs, value count,
+* 	epoch (double), shuffle state (long)
+* 	values: weights as getParameters(), then momentum history in the same layout
+* 
+*/
+public class TrainingCheckpointer {
+
+	public static final int MAGIC = 0x4e4e434b; // "NNCK"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 40;
+
+	// one of the two buffers, with the scalars of the state it holds
+	private static final class Snapshot {
+		double[] values;
+		double epoch;
+		long shuffleState;
+		int numInputs, numHidden, numOutputs;
+	}
+
+	private final File file;
+	private final int intervalEpochs;
+
+	// guarded by this: snapshot waiting for the writer, free buffers for the training thread
+	private Snapshot pending;
+	private final Snapshot[] spares = new Snapshot[2];
+	private int spareCount;
+	private boolean writing = false;
+	private boolean closed = false;
+	private IOException failure;
+	private long checkpointCount;
+
+	private final Thread writer;
+
+	/*
+	 * write a checkpoint of the net to file every intervalEpochs epochs and when train()
+	 * returns, see BackpropagationNet.setCheckpointer()
+	 */
+	public TrainingCheckpointer(File file, int intervalEpochs) {
+		if (intervalEpochs < 1)
+			throw new IllegalArgumentException(
+					"TrainingCheckpointer: interval must be >= 1");
+		this.file = file;
+		this.intervalEpochs = intervalEpochs;
+		spares[spareCount++] = new Snapshot();
+		spares[spareCount++] = new Snapshot();
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "TrainingCheckpointer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getCheckpointCount() {
+		return checkpointCount;
+	}
+
+	// called by the net at the end of every epoch
+	void onEpoch(BackpropagationNet net) {
+		if ((long) net.getEpoch() % intervalEpochs == 0)
+			checkpoint(net);
+	}
+
+	/*
+	 * copy the training state of net on the calling thread and queue it for writing; a
+	 * snapshot not yet picked up by the writer is replaced by this newer one
+	 */
+	public void checkpoint(BackpropagationNet net) {
+		Snapshot snapshot;
+		synchronized (this) {
+			if (closed)
+				throw new RuntimeException("checkpoint: checkpointer closed.");
+			if (spareCount > 0) {
+				snapshot = spares[--spareCount];
+			} else {
+				// the writer holds the other buffer, reuse the older pending snapshot
+				snapshot = pending;
+				pending = null;
+			}
+		}
+
+		int count = 2 * net.getParameterCount();
+		if (snapshot.values == null || snapshot.values.length != count)
+			snapshot.values = new double[count];
+		net.copyTrainingState(snapshot.values);
+		snapshot.epoch = net.getEpoch();
+		snapshot.shuffleState = net.getShuffleState();
+		snapshot.numInputs = net.getNumInputNeurons();
+		snapshot.numHidden = net.getNumHiddenNeurons();
+		snapshot.numOutputs = net.getNumOutputNeurons();
+
+		synchronized (this) {
+			pending = snapshot;
+			checkpointCount++;
+			notifyAll();
+		}
+	}
+
+	/*
+	 * load the latest checkpoint into net, which must have the same topology; returns false if
+	 * there is no checkpoint file yet
+	 */
+	public boolean restore(BackpropagationNet net) throws IOException,
+			InterruptedException {
+		flush();
+		if (!file.exists())
+			return false;
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException("restore: " + file + " truncated");
+			buffer.flip();
+
+			if (buffer.remaining() < HEADER_BYTES
+					|| buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("restore: " + file
+						+ " is not a checkpoint file");
+			int numInputs = buffer.getInt();
+			int numHidden = buffer.getInt();
+			int numOutputs = buffer.getInt();
+			int count = buffer.getInt();
+			double epoch = buffer.getDouble();
+			long shuffleState = buffer.getLong();
+			if (numInputs != net.getNumInputNeurons()
+					|| numHidden != net.getNumHiddenNeurons()
+					|| numOutputs != net.getNumOutputNeurons()
+					|| count != 2 * net.getParameterCount())
+				throw new IOException("restore: checkpoint topology "
+						+ numInputs + "-" + numHidden + "-" + numOutputs
+						+ " does not match the net");
+			if (buffer.remaining() != (long) count * 8)
+				throw new IOException("restore: " + file + " truncated");
+
+			double[] values = new double[count];
+			buffer.asDoubleBuffer().get(values);
+			net.restoreTrainingState(values, epoch, shuffleState);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	// wait until every queued checkpoint is on disk
+	public synchronized void flush() throws IOException, InterruptedException {
+		while ((pending != null || writing) && failure == null)
+			wait();
+		if (failure != null)
+			throw failure;
+	}
+
+	public void close() throws IOException, InterruptedException {
+		try {
+			flush();
+		} finally {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+			writer.join();
+		}
+	}
+
+	private void writeLoop() {
+		ByteBuffer buffer = null;
+		File temp = new File(file.getPath() + ".tmp");
+
+		while (true) {
+			Snapshot snapshot;
+			synchronized (this) {
+				while (pending == null && !closed)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				if (pending == null)
+					return;
+				snapshot = pending;
+				pending = null;
+				writing = true;
+			}
+
+			int bytes = HEADER_BYTES + snapshot.values.length * 8;
+			if (buffer == null || buffer.capacity() < bytes)
+				buffer = ByteBuffer.allocateDirect(bytes).order(
+						ByteOrder.LITTLE_ENDIAN);
+			buffer.clear();
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(snapshot.numInputs)
+					.putInt(snapshot.numHidden).putInt(snapshot.numOutputs)
+					.putInt(snapshot.values.length)
+					.putDouble(snapshot.epoch).putLong(snapshot.shuffleState);
+			buffer.asDoubleBuffer().put(snapshot.values);
+			buffer.position(bytes);
+			buffer.flip();
+
+			IOException error = null;
+			try {
+				write(temp, buffer);
+				// replace the previous checkpoint only once the new one is complete
+				if (!temp.renameTo(file)
+						&& !(file.delete() && temp.renameTo(file)))
+					throw new IOException("writeLoop: cannot rename " + temp
+							+ " to " + file);
+			} catch (IOException e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				spares[spareCount++] = snapshot;
+				writing = false;
+				if (error != null)
+					failure = error;
+				notifyAll();
+			}
+		}
+	}
+
+	private static void write(File path, ByteBuffer buffer) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(path, "rw");
+		try {
+			FileChannel channel = out.getChannel();
+			out.setLength(0);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+	}
+
+}
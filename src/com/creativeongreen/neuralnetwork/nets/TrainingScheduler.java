@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+*
+* @author creativeongreen
+* 
+* Run training jobs on a fixed number of worker threads; jobs are trained in time slices of a
+* few milliseconds, the queue picks the highest priority first and rotates jobs of the same
+* priority, so a long job cannot hold a worker while others wait
+* 
+*/
+public class TrainingScheduler {
+
+	private static final String LOG_TAG = "NN_TrainingScheduler";
+
+	public static final int PRIORITY_BACKGROUND = 0;
+	public static final int PRIORITY_NORMAL = 5;
+	public static final int PRIORITY_INTERACTIVE = 10;
+
+	// slice length in epochs is adapted between these limits to last about sliceMillis
+	private static final double MIN_SLICE_EPOCHS = 1;
+	private static final double MAX_SLICE_EPOCHS = 1 << 20;
+
+	public interface JobListener {
+		// on the worker thread after every time slice
+		void onJobProgress(Job job);
+
+		// once, when the job converged, ran out of epochs or budget, failed or was cancelled
+		void onJobFinished(Job job);
+	}
+
+	public static final class Job implements Future<BackpropagationNet> {
+		private final TrainingScheduler scheduler;
+		private final BackpropagationNet net;
+		private final double[][] inputTrainingSet;
+		private final double[][] expectedTrainingSet;
+		private final int[] sampleIndices;
+		private final int priority;
+		private final long budgetNanos;
+		private final JobListener listener;
+		private final double maxEpoch;
+
+		// guarded by the scheduler
+		private long sequence;
+		private long enqueueNanos;
+		private long waitNanos;
+		private boolean running;
+
+		// worker thread of the current slice only
+		private double sliceEpochs = 16;
+		private long runNanos;
+		private int sliceCount;
+
+		// guarded by this
+		private boolean done;
+		private boolean cancelled;
+		private boolean timedOut;
+		private Throwable failure;
+
+		private Job(TrainingScheduler scheduler, BackpropagationNet net,
+				double[][] inputTrainingSet, double[][] expectedTrainingSet,
+				int[] sampleIndices, int priority, long budgetNanos,
+				JobListener listener) {
+			this.scheduler = scheduler;
+			this.net = net;
+			this.inputTrainingSet = inputTrainingSet;
+			this.expectedTrainingSet = expectedTrainingSet;
+			this.sampleIndices = sampleIndices;
+			this.priority = priority;
+			this.budgetNanos = budgetNanos;
+			this.listener = listener;
+			this.maxEpoch = net.getMaxEpoch();
+		}
+
+		public BackpropagationNet getNet() {
+			return net;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public synchronized boolean isTimedOut() {
+			return timedOut;
+		}
+
+		// time spent queued, summed over all slices
+		public long getWaitMillis() {
+			synchronized (scheduler) {
+				return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+			}
+		}
+
+		// time spent training, summed over all slices
+		public long getRunMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(runNanos);
+		}
+
+		public int getSliceCount() {
+			return sliceCount;
+		}
+
+		// true if the job is finished and the net is done with its last slice
+		private boolean runSlice() {
+			long start = System.nanoTime();
+			try {
+				net.setMaxEpoch(Math.min(net.getEpoch() + sliceEpochs,
+						maxEpoch));
+				if (sliceCount == 0)
+					net.train(inputTrainingSet, expectedTrainingSet,
+							sampleIndices);
+				else
+					net.trainFromEpoch(inputTrainingSet, expectedTrainingSet,
+							sampleIndices);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					failure = e;
+				}
+				return true;
+			} finally {
+				net.setMaxEpoch(maxEpoch);
+			}
+			long elapsed = System.nanoTime() - start;
+			runNanos += elapsed;
+			sliceCount++;
+
+			// next slice about sliceMillis long, growing at most 4x at a time
+			sliceEpochs = Math.max(MIN_SLICE_EPOCHS, Math.min(
+					Math.min(MAX_SLICE_EPOCHS, 4 * sliceEpochs), sliceEpochs
+							* scheduler.sliceNanos / Math.max(1, elapsed)));
+
+			if (net.hasConverged() || net.getEpoch() >= maxEpoch
+					|| net.isStopRequested())
+				return true;
+			if (runNanos >= budgetNanos) {
+				synchronized (this) {
+					timedOut = true;
+				}
+				return true;
+			}
+			if (listener != null)
+				listener.onJobProgress(this);
+			return false;
+		}
+
+		private void finish() {
+			synchronized (this) {
+				if (done)
+					return;
+				done = true;
+				notifyAll();
+			}
+			if (listener != null)
+				listener.onJobFinished(this);
+		}
+
+		/*
+		 * a queued job is dropped right away, a running one at the end of its current slice; the
+		 * net keeps the weights reached so far and is not stopped for later runs
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (this) {
+				if (done)
+					return false;
+				cancelled = true;
+			}
+			if (scheduler.dequeue(this))
+				finish();
+			return true;
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		@Override
+		public synchronized BackpropagationNet get()
+				throws InterruptedException, ExecutionException {
+			while (!done)
+				wait();
+			return result();
+		}
+
+		@Override
+		public synchronized BackpropagationNet get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while (!done) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0)
+					throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+			return result();
+		}
+
+		private BackpropagationNet result() throws ExecutionException {
+			if (cancelled)
+				throw new CancellationException();
+			if (failure != null)
+				throw new ExecutionException(failure);
+			return net;
+		}
+	}
+
+	private final int maxJobs;
+	private final long sliceNanos;
+	private final ArrayList<Thread> workers = new ArrayList<Thread>();
+
+	// guarded by this
+	private final PriorityQueue<Job> queue;
+	private final ArrayList<Job> runningJobs = new ArrayList<Job>();
+	private long nextSequence;
+	private int activeJobs;
+	private boolean shutdown = false;
+	private int maxQueueDepth;
+	private long completedJobs;
+	private long rejectedJobs;
+	private long slices;
+	private long totalWaitNanos;
+	private long maxWaitNanos;
+
+	/*
+	 * numWorkers threads train at most maxJobs admitted jobs (queued or running), more are
+	 * rejected; each job trains for about sliceMillis before it goes back to the queue
+	 */
+	public TrainingScheduler(int numWorkers, int maxJobs, long sliceMillis) {
+		if (numWorkers < 1 || maxJobs < 1 || sliceMillis < 1)
+			throw new IllegalArgumentException(
+					"TrainingScheduler: workers, jobs and slice must be >= 1");
+		this.maxJobs = maxJobs;
+		this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+
+		// higher priority first, then the job which was queued first
+		queue = new PriorityQueue<Job>(Math.max(11, maxJobs),
+				new Comparator<Job>() {
+					@Override
+					public int compare(Job a, Job b) {
+						if (a.priority != b.priority)
+							return (a.priority > b.priority) ? -1 : 1;
+						return (a.sequence < b.sequence) ? -1
+								: ((a.sequence == b.sequence) ? 0 : 1);
+					}
+				});
+
+		for (int w = 0; w < numWorkers; w++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "TrainingScheduler-" + w);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	public Job submit(BackpropagationNet net, double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int priority, long budgetMillis,
+			JobListener listener) {
+		return submit(net, inputTrainingSet, expectedTrainingSet, null,
+				priority, budgetMillis, listener);
+	}
+
+	/*
+	 * queue the training of net up to its max. epoch; budgetMillis limits the training time
+	 * (not counting time in the queue), 0 means no limit; throws RejectedExecutionException
+	 * when maxJobs jobs are already admitted
+	 */
+	public Job submit(BackpropagationNet net, double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices, int priority,
+			long budgetMillis, JobListener listener) {
+		Job job = new Job(this, net, inputTrainingSet, expectedTrainingSet,
+				sampleIndices, priority,
+				(budgetMillis > 0) ? TimeUnit.MILLISECONDS
+						.toNanos(budgetMillis) : Long.MAX_VALUE, listener);
+
+		synchronized (this) {
+			if (shutdown)
+				throw new RejectedExecutionException("submit: scheduler shut down.");
+			if (activeJobs >= maxJobs) {
+				rejectedJobs++;
+				throw new RejectedExecutionException("submit: " + activeJobs
+						+ " jobs active, limit " + maxJobs);
+			}
+			activeJobs++;
+			enqueue(job);
+		}
+		return job;
+	}
+
+	// cancel all jobs and let the workers quit; submit() rejects new jobs from now on
+	public void shutdown() {
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		synchronized (this) {
+			shutdown = true;
+			jobs.addAll(queue);
+			jobs.addAll(runningJobs);
+			notifyAll();
+		}
+		for (int k = 0; k < jobs.size(); k++)
+			jobs.get(k).cancel(true);
+	}
+
+	// jobs waiting for a worker
+	public synchronized int getQueueDepth() {
+		return queue.size();
+	}
+
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	// jobs queued or running
+	public synchronized int getActiveJobCount() {
+		return activeJobs;
+	}
+
+	public synchronized long getCompletedJobCount() {
+		return completedJobs;
+	}
+
+	public synchronized long getRejectedJobCount() {
+		return rejectedJobs;
+	}
+
+	// mean time a slice waited in the queue
+	public synchronized double getMeanWaitMillis() {
+		return (slices == 0) ? 0 : totalWaitNanos / 1e6 / slices;
+	}
+
+	public synchronized double getMaxWaitMillis() {
+		return maxWaitNanos / 1e6;
+	}
+
+	private void enqueue(Job job) {
+		job.sequence = nextSequence++;
+		job.enqueueNanos = System.nanoTime();
+		queue.add(job);
+		maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+		notify();
+	}
+
+	// true if job was still queued and is now removed
+	private synchronized boolean dequeue(Job job) {
+		if (job.running || !queue.remove(job))
+			return false;
+		activeJobs--;
+		completedJobs++;
+		return true;
+	}
+
+	private void work() {
+		while (true) {
+			Job job;
+			synchronized (this) {
+				while (queue.isEmpty() && !shutdown)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				if (shutdown)
+					return;
+				job = queue.poll();
+				job.running = true;
+				runningJobs.add(job);
+				long wait = System.nanoTime() - job.enqueueNanos;
+				job.waitNanos += wait;
+				totalWaitNanos += wait;
+				maxWaitNanos = Math.max(maxWaitNanos, wait);
+				slices++;
+			}
+
+			boolean finished = job.runSlice();
+
+			synchronized (this) {
+				job.running = false;
+				runningJobs.remove(job);
+				if (!finished && !shutdown && !job.isCancelled()) {
+					enqueue(job);
+					continue;
+				}
+				activeJobs--;
+				completedJobs++;
+			}
+			job.finish();
+		}
+	}
+
+}
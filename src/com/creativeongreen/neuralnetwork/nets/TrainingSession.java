@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+*
+* @author creativeongreen
+* 
+* One asynchronous train() run of a BackpropagationNet, see BackpropagationNet.newTrainingSession();
+* the session is the Future of the trained net, with an optional wall-clock budget and a
+* throttled progress listener
+* 
+*/
+public class TrainingSession implements Future<BackpropagationNet> {
+
+	public interface Listener {
+		// on the training thread, at most once per progress interval
+		void onProgress(TrainingSession session, double epoch, double error,
+				double samplesPerSecond);
+
+		/*
+		 * on the training thread once train() returned, also after a timeout or cancel(); not
+		 * called for a session cancelled before it started
+		 */
+		void onFinished(TrainingSession session);
+	}
+
+	// the clock is read about once per millisecond, whatever the epoch length
+	private static final long CLOCK_CHECK_NANOS = 1000000L;
+	private static final int MAX_EPOCHS_PER_CHECK = 1 << 16;
+
+	private final BackpropagationNet net;
+	private final FutureTask<BackpropagationNet> task;
+
+	private long budgetNanos = Long.MAX_VALUE;
+	private Listener listener;
+	private long progressIntervalNanos;
+
+	// training thread only
+	private boolean monitored;
+	private int epochsPerCheck = 1;
+	private int epochsUntilCheck = 1;
+	private long lastCheckNanos;
+	private long lastProgressNanos;
+	private double lastProgressEpoch;
+
+	private volatile boolean timedOut = false;
+	// ends this run only, the net's own stopTraining() flag is left alone
+	private volatile boolean stopRequested = false;
+	private volatile long startNanos;
+	private volatile long endNanos;
+
+	TrainingSession(BackpropagationNet net, final double[][] inputTrainingSet,
+			final double[][] expectedTrainingSet, final int[] sampleIndices) {
+		this.net = net;
+		this.task = new FutureTask<BackpropagationNet>(
+				new Callable<BackpropagationNet>() {
+					@Override
+					public BackpropagationNet call() {
+						return run(inputTrainingSet, expectedTrainingSet,
+								sampleIndices);
+					}
+				});
+	}
+
+	/*
+	 * stop training after millis of wall-clock time, the net keeps the weights reached so far
+	 * and isTimedOut() turns true; must be set before start()
+	 */
+	public TrainingSession setTimeBudget(long millis) {
+		budgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+
+	// must be set before start()
+	public TrainingSession setListener(Listener listener,
+			long progressIntervalMillis) {
+		this.listener = listener;
+		this.progressIntervalNanos = TimeUnit.MILLISECONDS
+				.toNanos(progressIntervalMillis);
+		return this;
+	}
+
+	public TrainingSession start(Executor executor) {
+		executor.execute(task);
+		return this;
+	}
+
+	// train on a new thread of its own
+	public TrainingSession start() {
+		new Thread(task, "TrainingSession").start();
+		return this;
+	}
+
+	public BackpropagationNet getNet() {
+		return net;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	// wall-clock time since training started, up to its end once finished
+	public long getElapsedMillis() {
+		if (startNanos == 0)
+			return 0;
+		long end = (endNanos != 0) ? endNanos : System.nanoTime();
+		return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+	}
+
+	/*
+	 * stop the net on its next sample; a later get() throws CancellationException, the net
+	 * itself stays usable with the weights reached so far
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		stopRequested = true;
+		return task.cancel(mayInterruptIfRunning);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return task.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return task.isDone();
+	}
+
+	@Override
+	public BackpropagationNet get() throws InterruptedException,
+			ExecutionException {
+		return task.get();
+	}
+
+	@Override
+	public BackpropagationNet get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return task.get(timeout, unit);
+	}
+
+	private BackpropagationNet run(double[][] inputTrainingSet,
+			double[][] expectedTrainingSet, int[] sampleIndices) {
+		monitored = (budgetNanos != Long.MAX_VALUE) || (listener != null);
+		startNanos = System.nanoTime();
+		lastCheckNanos = startNanos;
+		lastProgressNanos = startNanos;
+		lastProgressEpoch = 0;
+
+		net.setTrainingSession(this);
+		try {
+			net.train(inputTrainingSet, expectedTrainingSet, sampleIndices);
+		} finally {
+			net.setTrainingSession(null);
+			endNanos = System.nanoTime();
+			if (listener != null)
+				listener.onFinished(this);
+		}
+		return net;
+	}
+
+	// polled by the net on every sample while this session runs it
+	boolean isStopRequested() {
+		return stopRequested;
+	}
+
+	// called by the net at the end of every epoch
+	void onEpoch() {
+		if (!monitored || --epochsUntilCheck > 0)
+			return;
+
+		long now = System.nanoTime();
+		long sinceCheck = now - lastCheckNanos;
+		if (sinceCheck < CLOCK_CHECK_NANOS
+				&& epochsPerCheck < MAX_EPOCHS_PER_CHECK)
+			epochsPerCheck <<= 1;
+		else if (sinceCheck > 4 * CLOCK_CHECK_NANOS && epochsPerCheck > 1)
+			epochsPerCheck >>= 1;
+		epochsUntilCheck = epochsPerCheck;
+		lastCheckNanos = now;
+
+		if (now - startNanos >= budgetNanos) {
+			timedOut = true;
+			stopRequested = true;
+		}
+
+		if (listener != null && now - lastProgressNanos >= progressIntervalNanos) {
+			double epoch = net.getEpoch();
+			double samples = (epoch - lastProgressEpoch)
+					* net.getNumEpochSamples();
+			listener.onProgress(this, epoch, net.getStopMetricError(), samples
+					* 1e9 / (now - lastProgressNanos));
+			lastProgressNanos = now;
+			lastProgressEpoch = epoch;
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* A trained boolean function net compiled into a bit-packed truth table: all 2^n binary inputs
+* are evaluated once (in parallel), afterwards binary inputs are answered by a table lookup
+* 
+*/
+public class TruthTableNet {
+
+	private static final String LOG_TAG = "NN_TruthTableNet";
+
+	public static final int MAX_INPUTS = 24;
+
+	// rows evaluated per batch, a multiple of 64 so that no two tasks share a table word
+	private static final int ROWS_PER_BLOCK = 4096;
+
+	private final BackpropagationNet net;
+	private final int numInputs;
+	private final int numOutputs;
+	private final double threshold;
+
+	// bit (row * numOutputs + k) is output k of row, where input i of row is bit i of row
+	private final long[] table;
+	private final long weightsVersion;
+	private long compileNanos;
+
+	private TruthTableNet(BackpropagationNet net, double threshold) {
+		this.net = net;
+		this.numInputs = net.getNumInputNeurons();
+		this.numOutputs = net.getNumOutputNeurons();
+		this.threshold = threshold;
+		this.table = new long[(int) ((((long) numOutputs << numInputs) + 63) / 64)];
+		this.weightsVersion = net.getWeightsVersion();
+	}
+
+	/*
+	 * evaluate net over all 2^n binary inputs, an output >= threshold is stored as 1; executor
+	 * may be null to compile on the calling thread
+	 */
+	public static TruthTableNet compile(final BackpropagationNet net,
+			double threshold, ExecutorService executor)
+			throws InterruptedException {
+		if (net.getNumInputNeurons() > MAX_INPUTS)
+			throw new RuntimeException("compile: more than " + MAX_INPUTS
+					+ " inputs.");
+
+		long startTime = System.nanoTime();
+		final TruthTableNet truthTable = new TruthTableNet(net, threshold);
+		final int numRows = 1 << truthTable.numInputs;
+		final int numBlocks = (numRows + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+
+		if (executor == null) {
+			truthTable.fill(0, numRows);
+		} else {
+			int numTasks = Math.min(numBlocks, Runtime.getRuntime()
+					.availableProcessors() * 4);
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+			try {
+				for (int t = 0; t < numTasks; t++) {
+					final int firstBlock = (int) ((long) t * numBlocks / numTasks);
+					final int lastBlock = (int) ((long) (t + 1) * numBlocks / numTasks);
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							truthTable.fill(firstBlock * ROWS_PER_BLOCK,
+									Math.min(lastBlock * ROWS_PER_BLOCK,
+											numRows));
+							return null;
+						}
+					}));
+				}
+				for (int t = 0; t < futures.size(); t++)
+					futures.get(t).get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("compile: failed", e.getCause());
+			} finally {
+				for (int t = 0; t < futures.size(); t++)
+					futures.get(t).cancel(true);
+			}
+		}
+
+		truthTable.compileNanos = System.nanoTime() - startTime;
+		return truthTable;
+	}
+
+	// evaluate rows [from, to) block by block through the net's batched inference
+	private void fill(int from, int to) {
+		int blockSize = Math.min(ROWS_PER_BLOCK, to - from);
+		double[][] inputs = new double[blockSize][numInputs];
+		double[][] outputs = new double[blockSize][numOutputs];
+
+		for (int start = from; start < to; start += blockSize) {
+			int rows = Math.min(blockSize, to - start);
+			for (int r = 0; r < rows; r++)
+				for (int i = 0; i < numInputs; i++)
+					inputs[r][i] = ((start + r) >>> i) & 1;
+
+			net.computeOutputs(inputs, null, 0, rows, outputs);
+
+			for (int r = 0; r < rows; r++) {
+				long bit = (long) (start + r) * numOutputs;
+				for (int k = 0; k < numOutputs; k++, bit++)
+					if (outputs[r][k] >= threshold)
+						table[(int) (bit >>> 6)] |= 1L << bit;
+			}
+		}
+	}
+
+	// O(1) lookup of output k for the binary input whose bit i is input i
+	public boolean lookup(int inputBits, int k) {
+		long bit = (long) inputBits * numOutputs + k;
+		return (table[(int) (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	/*
+	 * binary inputs (every value exactly 0.0 or 1.0) are answered from the table as 0.0 / 1.0,
+	 * any other (e.g. noisy) input falls back to the net's real, not thresholded, output
+	 */
+	public void computeOutputs(double[] input, double[] output) {
+		int inputBits = 0;
+		for (int i = 0; i < numInputs; i++) {
+			if (input[i] == 1.0)
+				inputBits |= 1 << i;
+			else if (input[i] != 0.0) {
+				net.computeOutputs(new double[][] { input }, null, 0, 1,
+						new double[][] { output });
+				return;
+			}
+		}
+
+		for (int k = 0; k < numOutputs; k++)
+			output[k] = lookup(inputBits, k) ? 1.0 : 0.0;
+	}
+
+	// true once the net's weights changed after compilation
+	public boolean isStale() {
+		return net.getWeightsVersion() != weightsVersion;
+	}
+
+	public long getCompileNanos() {
+		return compileNanos;
+	}
+
+	public long getTableBytes() {
+		return table.length * 8L;
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.nets;
+
+/**
+*
+* @author creativeongreen
+* 
+* Hand-unrolled forward pass of the tiny all-sigmoid 2-H-1 nets, one class per H = 2..5 (5 is
+* the largest hidden layer the settings allow), with the weights held in final fields; used by
+* FrozenNet in place of its generic layer loop
+* 
+*/
+abstract class UnrolledKernel {
+
+	/*
+	 * kernel for a net of the given layer sizes, bias flags, FrozenNet.ACTIVATION_* and
+	 * neuron-major weights, null for any other topology
+	 */
+	static UnrolledKernel create(int numInputs, int[] neuronCounts,
+			boolean[] inputBiases, int[] activations, double[] weights) {
+		if (numInputs != 2 || neuronCounts.length != 2 || neuronCounts[1] != 1)
+			return null;
+		for (int l = 0; l < 2; l++)
+			if (!inputBiases[l] || activations[l] != FrozenNet.ACTIVATION_SIGMOID)
+				return null;
+
+		// larger hidden layers stay with the generic loop, where loop overhead no longer matters
+		switch (neuronCounts[0]) {
+		case 2:
+			return new Sigmoid2x2x1(weights);
+		case 3:
+			return new Sigmoid2x3x1(weights);
+		case 4:
+			return new Sigmoid2x4x1(weights);
+		case 5:
+			return new Sigmoid2x5x1(weights);
+		default:
+			return null;
+		}
+	}
+
+	// output[0] = net output for input[0..1]
+	abstract void compute(double[] input, double[] output);
+
+	// same expression as SigmoidActivation, keeps results bit-identical to the generic path
+	static double sigmoid(double x) {
+		return 1.0 / (1 + Math.exp(-1.0 * x));
+	}
+
+	// weights: hidden neuron j at [3 * j ..] = { input 0, input 1, bias }, then the output
+	// neuron at [3 * H ..] = { hidden 0 .. hidden H - 1, bias }
+	static final class Sigmoid2x2x1 extends UnrolledKernel {
+
+		private final double w0a, w0b, b0;
+		private final double w1a, w1b, b1;
+		private final double v0, v1, vb;
+
+		Sigmoid2x2x1(double[] w) {
+			w0a = w[0];
+			w0b = w[1];
+			b0 = w[2];
+			w1a = w[3];
+			w1b = w[4];
+			b1 = w[5];
+			v0 = w[6];
+			v1 = w[7];
+			vb = w[8];
+		}
+
+		@Override
+		void compute(double[] input, double[] output) {
+			double x0 = input[0];
+			double x1 = input[1];
+			double h0 = sigmoid(x0 * w0a + x1 * w0b + b0);
+			double h1 = sigmoid(x0 * w1a + x1 * w1b + b1);
+			output[0] = sigmoid(h0 * v0 + h1 * v1 + vb);
+		}
+	}
+
+	static final class Sigmoid2x3x1 extends UnrolledKernel {
+
+		private final double w0a, w0b, b0;
+		private final double w1a, w1b, b1;
+		private final double w2a, w2b, b2;
+		private final double v0, v1, v2, vb;
+
+		Sigmoid2x3x1(double[] w) {
+			w0a = w[0];
+			w0b = w[1];
+			b0 = w[2];
+			w1a = w[3];
+			w1b = w[4];
+			b1 = w[5];
+			w2a = w[6];
+			w2b = w[7];
+			b2 = w[8];
+			v0 = w[9];
+			v1 = w[10];
+			v2 = w[11];
+			vb = w[12];
+		}
+
+		@Override
+		void compute(double[] input, double[] output) {
+			double x0 = input[0];
+			double x1 = input[1];
+			double h0 = sigmoid(x0 * w0a + x1 * w0b + b0);
+			double h1 = sigmoid(x0 * w1a + x1 * w1b + b1);
+			double h2 = sigmoid(x0 * w2a + x1 * w2b + b2);
+			output[0] = sigmoid(h0 * v0 + h1 * v1 + h2 * v2 + vb);
+		}
+	}
+
+	static final class Sigmoid2x4x1 extends UnrolledKernel {
+
+		private final double w0a, w0b, b0;
+		private final double w1a, w1b, b1;
+		private final double w2a, w2b, b2;
+		private final double w3a, w3b, b3;
+		private final double v0, v1, v2, v3, vb;
+
+		Sigmoid2x4x1(double[] w) {
+			w0a = w[0];
+			w0b = w[1];
+			b0 = w[2];
+			w1a = w[3];
+			w1b = w[4];
+			b1 = w[5];
+			w2a = w[6];
+			w2b = w[7];
+			b2 = w[8];
+			w3a = w[9];
+			w3b = w[10];
+			b3 = w[11];
+			v0 = w[12];
+			v1 = w[13];
+			v2 = w[14];
+			v3 = w[15];
+			vb = w[16];
+		}
+
+		@Override
+		void compute(double[] input, double[] output) {
+			double x0 = input[0];
+			double x1 = input[1];
+			double h0 = sigmoid(x0 * w0a + x1 * w0b + b0);
+			double h1 = sigmoid(x0 * w1a + x1 * w1b + b1);
+			double h2 = sigmoid(x0 * w2a + x1 * w2b + b2);
+			double h3 = sigmoid(x0 * w3a + x1 * w3b + b3);
+			output[0] = sigmoid(h0 * v0 + h1 * v1 + h2 * v2 + h3 * v3 + vb);
+		}
+	}
+
+	static final class Sigmoid2x5x1 extends UnrolledKernel {
+
+		private final double w0a, w0b, b0;
+		private final double w1a, w1b, b1;
+		private final double w2a, w2b, b2;
+		private final double w3a, w3b, b3;
+		private final double w4a, w4b, b4;
+		private final double v0, v1, v2, v3, v4, vb;
+
+		Sigmoid2x5x1(double[] w) {
+			w0a = w[0];
+			w0b = w[1];
+			b0 = w[2];
+			w1a = w[3];
+			w1b = w[4];
+			b1 = w[5];
+			w2a = w[6];
+			w2b = w[7];
+			b2 = w[8];
+			w3a = w[9];
+			w3b = w[10];
+			b3 = w[11];
+			w4a = w[12];
+			w4b = w[13];
+			b4 = w[14];
+			v0 = w[15];
+			v1 = w[16];
+			v2 = w[17];
+			v3 = w[18];
+			v4 = w[19];
+			vb = w[20];
+		}
+
+		@Override
+		void compute(double[] input, double[] output) {
+			double x0 = input[0];
+			double x1 = input[1];
+			double h0 = sigmoid(x0 * w0a + x1 * w0b + b0);
+			double h1 = sigmoid(x0 * w1a + x1 * w1b + b1);
+			double h2 = sigmoid(x0 * w2a + x1 * w2b + b2);
+			double h3 = sigmoid(x0 * w3a + x1 * w3b + b3);
+			double h4 = sigmoid(x0 * w4a + x1 * w4b + b4);
+			output[0] = sigmoid(h0 * v0 + h1 * v1 + h2 * v2 + h3 * v3 + h4 * v4 + vb);
+		}
+	}
+
+}
@@ -23,6 +23,7 @@
 package com.creativeongreen.neuralnetwork.preference;
 
 import com.creativeongreen.neuralnetwork.apps.logic.R;
+import com.creativeongreen.neuralnetwork.nets.HyperParameterTrial;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
@@ -39,6 +40,30 @@ import android.preference.PreferenceActivity;
 public class UserSettingActivity extends PreferenceActivity implements
 		OnSharedPreferenceChangeListener {
 
+	// rates are persisted by the sliders as percent
+	private static final int SETTINGS_PARAMS_GENERAL_PERCENT = 100;
+	private static final String SETTINGS_PARAMS_KEY_NUM_HIDDEN_NEURONS = "paramNumHiddenNeurons";
+	private static final String SETTINGS_PARAMS_KEY_LEARNING_RATE = "paramLearningRate";
+	private static final String SETTINGS_PARAMS_KEY_MOMENTUM = "paramMomentum";
+
+	/*
+	 * write the configuration of a hyper-parameter search trial (usually the winner) back as the
+	 * slider values of the settings screen
+	 */
+	public static void saveHyperParameters(SharedPreferences sharedPref,
+			HyperParameterTrial trial) {
+		sharedPref
+				.edit()
+				.putInt(SETTINGS_PARAMS_KEY_NUM_HIDDEN_NEURONS,
+						trial.getNumHiddenNeurons())
+				.putInt(SETTINGS_PARAMS_KEY_LEARNING_RATE,
+						(int) Math.round(trial.getLearningRate()
+								* SETTINGS_PARAMS_GENERAL_PERCENT))
+				.putInt(SETTINGS_PARAMS_KEY_MOMENTUM,
+						(int) Math.round(trial.getMomentum()
+								* SETTINGS_PARAMS_GENERAL_PERCENT)).commit();
+	}
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* Synthetic truth table generator for n-input boolean functions, optionally with every row
+* replicated several times with input noise
+* 
+*/
+public class BooleanDataSetGenerator {
+
+	// 1 output, odd number of 1 inputs; size = number of inputs
+	public static final int FUNCTION_PARITY = 0;
+	// 1 output, more 1 than 0 inputs; size = number of inputs
+	public static final int FUNCTION_MAJORITY = 1;
+	// 1 output, data input addressed by the select inputs; size = select bits k, k + 2^k inputs
+	public static final int FUNCTION_MULTIPLEXER = 2;
+	// k + 1 output bits of a + b; size = bits k of each operand, 2k inputs
+	public static final int FUNCTION_ADDER = 3;
+	// 3 outputs { a < b, a == b, a > b }; size = bits k of each operand, 2k inputs
+	public static final int FUNCTION_COMPARATOR = 4;
+
+	private static final int MAX_INPUTS = 62;
+
+	private final int function;
+	private final int size;
+	private final int numInputs;
+	private final int numOutputs;
+
+	private int replicas = 1;
+	private double noiseDegree = 0;
+	private long seed;
+
+	public BooleanDataSetGenerator(int function, int size) {
+		this.function = function;
+		this.size = size;
+
+		switch (function) {
+		case FUNCTION_PARITY:
+		case FUNCTION_MAJORITY:
+			numInputs = size;
+			numOutputs = 1;
+			break;
+		case FUNCTION_MULTIPLEXER:
+			// more than 5 select bits would exceed MAX_INPUTS anyway
+			numInputs = (size <= 5) ? size + (1 << size) : Integer.MAX_VALUE;
+			numOutputs = 1;
+			break;
+		case FUNCTION_ADDER:
+			numInputs = 2 * size;
+			numOutputs = size + 1;
+			break;
+		case FUNCTION_COMPARATOR:
+			numInputs = 2 * size;
+			numOutputs = 3;
+			break;
+		default:
+			throw new IllegalArgumentException(
+					"BooleanDataSetGenerator: unknown function " + function);
+		}
+
+		if (size < 1 || numInputs > MAX_INPUTS)
+			throw new IllegalArgumentException(
+					"BooleanDataSetGenerator: size out of range " + size);
+	}
+
+	/*
+	 * join truth tables over the same inputs column by column, e.g. XOR, AND and OR of two
+	 * inputs into one 3-output table for a single multi-output net
+	 */
+	public static double[][] stackOutputs(double[][]... tables) {
+		int numRows = tables[0].length;
+		int numOutputs = 0;
+		for (int t = 0; t < tables.length; t++) {
+			if (tables[t].length != numRows)
+				throw new IllegalArgumentException(
+						"stackOutputs: tables have different numbers of rows");
+			numOutputs += tables[t][0].length;
+		}
+
+		double[][] stacked = new double[numRows][numOutputs];
+		for (int r = 0; r < numRows; r++) {
+			int column = 0;
+			for (int t = 0; t < tables.length; t++) {
+				System.arraycopy(tables[t][r], 0, stacked[r], column,
+						tables[t][r].length);
+				column += tables[t][r].length;
+			}
+		}
+		return stacked;
+	}
+
+	/*
+	 * replicate every truth table row replicas times, each copy with input noise of degree
+	 * range: -1*noiseDegree ~ 1*noiseDegree, the noise of a sample only depends on seed and the
+	 * sample index, so samples can be generated in any order or in parallel
+	 */
+	public void setNoise(int replicas, double noiseDegree, long seed) {
+		if (replicas < 1)
+			throw new IllegalArgumentException("setNoise: replicas must be >= 1");
+		this.replicas = replicas;
+		this.noiseDegree = noiseDegree;
+		this.seed = seed;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	// truth table rows, 2^n
+	public long getNumRows() {
+		return 1L << numInputs;
+	}
+
+	public long getSampleCount() {
+		return getNumRows() * replicas;
+	}
+
+	/*
+	 * sample s is replica (s % replicas) of row (s / replicas), input i of a row is bit i of its
+	 * index; writes numInputs values to input[inputOffset..] and numOutputs values to
+	 * output[outputOffset..]
+	 */
+	public void computeSample(long sample, double[] input, int inputOffset,
+			double[] output, int outputOffset) {
+		long row = sample / replicas;
+
+		for (int i = 0; i < numInputs; i++) {
+			double x = (row >>> i) & 1;
+			if (noiseDegree != 0 && x != 0) {
+				double noise = uniform(sample * numInputs + i);
+				x += x * ((noiseDegree * 2 * noise) - noiseDegree);
+			}
+			input[inputOffset + i] = x;
+		}
+
+		switch (function) {
+		case FUNCTION_PARITY:
+			output[outputOffset] = Long.bitCount(row) & 1;
+			break;
+
+		case FUNCTION_MAJORITY:
+			output[outputOffset] = (2 * Long.bitCount(row) > numInputs) ? 1 : 0;
+			break;
+
+		case FUNCTION_MULTIPLEXER:
+			int address = (int) (row & ((1 << size) - 1));
+			output[outputOffset] = (row >>> (size + address)) & 1;
+			break;
+
+		case FUNCTION_ADDER:
+			long sum = (row & ((1L << size) - 1)) + (row >>> size);
+			for (int k = 0; k < numOutputs; k++)
+				output[outputOffset + k] = (sum >>> k) & 1;
+			break;
+
+		case FUNCTION_COMPARATOR:
+			long a = row & ((1L << size) - 1);
+			long b = row >>> size;
+			output[outputOffset] = (a < b) ? 1 : 0;
+			output[outputOffset + 1] = (a == b) ? 1 : 0;
+			output[outputOffset + 2] = (a > b) ? 1 : 0;
+			break;
+		}
+	}
+
+	public void computeSample(long sample, double[] input, double[] output) {
+		computeSample(sample, input, 0, output, 0);
+	}
+
+	// samples [fromSample, fromSample + inputs.length) into row arrays
+	public void fill(double[][] inputs, double[][] outputs, long fromSample) {
+		for (int r = 0; r < inputs.length; r++)
+			computeSample(fromSample + r, inputs[r], outputs[r]);
+	}
+
+	/*
+	 * samples [fromSample, fromSample + count) into preallocated row-major flat buffers
+	 * inputs[count x numInputs] and outputs[count x numOutputs], split into ranges across
+	 * executor (null to fill on the calling thread)
+	 */
+	public void fill(final double[] inputs, final double[] outputs,
+			final long fromSample, final int count, ExecutorService executor)
+			throws InterruptedException {
+		if (executor == null) {
+			fillRange(inputs, outputs, fromSample, 0, count);
+			return;
+		}
+
+		int numTasks = Math.max(1, Math.min(Runtime.getRuntime()
+				.availableProcessors() * 4, count / 4096));
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (int t = 0; t < numTasks; t++) {
+				final int from = (int) ((long) t * count / numTasks);
+				final int to = (int) ((long) (t + 1) * count / numTasks);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						fillRange(inputs, outputs, fromSample, from, to);
+						return null;
+					}
+				}));
+			}
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("fill: failed", e.getCause());
+		} finally {
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).cancel(true);
+		}
+	}
+
+	private void fillRange(double[] inputs, double[] outputs, long fromSample,
+			int from, int to) {
+		for (int r = from; r < to; r++)
+			computeSample(fromSample + r, inputs, r * numInputs, outputs, r
+					* numOutputs);
+	}
+
+	// stateless uniform 0.0 ~ 1.0 of (seed, index), splitmix64 finalizer
+	private double uniform(long index) {
+		long z = seed + (index + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+*
+* @author creativeongreen
+* 
+* Import a CSV/TSV file of numbers into the MappedDataSet file format; the file is split into
+* byte ranges which are parsed on several threads, without String or boxed values
+* 
+*/
+public class CsvDataSetImporter {
+
+	// byte ranges are kept below the 2 GB limit of a single mapping
+	private static final long MAX_PART_BYTES = 1L << 30;
+	private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+	// exact powers of ten, 10^22 is the largest one a double holds exactly
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private final File csvFile;
+	private final byte delimiter;
+	private final boolean hasHeader;
+	private final int numInputs;
+	private final int numOutputs;
+	// column c goes to row value columnTargets[c] (inputs first, then outputs), -1 skips it
+	private final int[] columnTargets;
+
+	private long bytesRead;
+	private long rowsImported;
+	private long importNanos;
+
+	/*
+	 * inputColumns and outputColumns are 0-based column numbers of the file, e.g. { 0, 1 } and
+	 * { 2 } for lines like "0,1,1"; delimiter is ',' for CSV or '\t' for TSV
+	 */
+	public CsvDataSetImporter(File csvFile, char delimiter, boolean hasHeader,
+			int[] inputColumns, int[] outputColumns) {
+		this.csvFile = csvFile;
+		this.delimiter = (byte) delimiter;
+		this.hasHeader = hasHeader;
+		this.numInputs = inputColumns.length;
+		this.numOutputs = outputColumns.length;
+
+		int maxColumn = -1;
+		for (int i = 0; i < inputColumns.length; i++)
+			maxColumn = Math.max(maxColumn, inputColumns[i]);
+		for (int j = 0; j < outputColumns.length; j++)
+			maxColumn = Math.max(maxColumn, outputColumns[j]);
+		columnTargets = new int[maxColumn + 1];
+		for (int c = 0; c <= maxColumn; c++)
+			columnTargets[c] = -1;
+		for (int i = 0; i < inputColumns.length; i++)
+			columnTargets[inputColumns[i]] = i;
+		for (int j = 0; j < outputColumns.length; j++)
+			columnTargets[outputColumns[j]] = numInputs + j;
+	}
+
+	/*
+	 * parse the file into a data set file at path; pass one counts the rows of every byte range,
+	 * which gives each range its output offset, pass two parses and writes the ranges in
+	 * parallel; executor may be null to run on the calling thread
+	 */
+	public void importTo(File path, final int elementBytes,
+			ExecutorService executor, int numParts) throws IOException,
+			InterruptedException {
+		// MappedDataSet only reads float and double files
+		if (elementBytes != MappedDataSet.ELEMENT_FLOAT
+				&& elementBytes != MappedDataSet.ELEMENT_DOUBLE)
+			throw new IllegalArgumentException("importTo: bad element size "
+					+ elementBytes);
+
+		long startTime = System.nanoTime();
+
+		RandomAccessFile in = new RandomAccessFile(csvFile, "r");
+		RandomAccessFile out = new RandomAccessFile(path, "rw");
+		try {
+			final FileChannel inChannel = in.getChannel();
+			final FileChannel outChannel = out.getChannel();
+			long fileSize = inChannel.size();
+
+			numParts = (int) Math.max(Math.max(1, numParts),
+					(fileSize + MAX_PART_BYTES - 1) / MAX_PART_BYTES);
+			final long[] partStarts = splitLines(inChannel, fileSize, numParts);
+
+			// pass one: rows per range
+			final long[] partRows = new long[numParts];
+			ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int p = 0; p < numParts; p++) {
+				final int part = p;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						partRows[part] = countRows(map(inChannel,
+								partStarts[part], partStarts[part + 1]));
+						return null;
+					}
+				});
+			}
+			runTasks(executor, tasks);
+
+			long sampleCount = 0;
+			final long[] rowOffsets = new long[numParts];
+			for (int p = 0; p < numParts; p++) {
+				rowOffsets[p] = sampleCount;
+				sampleCount += partRows[p];
+			}
+
+			out.setLength(0);
+			MappedDataSet.writeHeader(outChannel, elementBytes, numInputs,
+					numOutputs, sampleCount);
+
+			// pass two: parse, each range writes to its own region of the output file
+			final long rowBytes = (long) (numInputs + numOutputs) * elementBytes;
+			tasks.clear();
+			for (int p = 0; p < numParts; p++) {
+				final int part = p;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						parseRows(map(inChannel, partStarts[part],
+								partStarts[part + 1]), outChannel,
+								MappedDataSet.HEADER_BYTES + rowOffsets[part]
+										* rowBytes, elementBytes);
+						return null;
+					}
+				});
+			}
+			runTasks(executor, tasks);
+
+			bytesRead = fileSize;
+			rowsImported = sampleCount;
+		} finally {
+			in.close();
+			out.close();
+		}
+
+		importNanos = System.nanoTime() - startTime;
+	}
+
+	/*
+	 * part p is [starts[p], starts[p + 1]), every start but the first is moved to the beginning
+	 * of a line; a header line is left out of the first part
+	 */
+	private long[] splitLines(FileChannel channel, long fileSize, int numParts)
+			throws IOException {
+		long[] starts = new long[numParts + 1];
+		ByteBuffer one = ByteBuffer.allocate(1);
+
+		starts[0] = hasHeader ? nextLine(channel, 0, fileSize, one) : 0;
+		for (int p = 1; p < numParts; p++) {
+			long start = Math.max(starts[p - 1], fileSize * p / numParts);
+			starts[p] = (start == 0) ? 0 : nextLine(channel, start - 1,
+					fileSize, one);
+		}
+		starts[numParts] = fileSize;
+		return starts;
+	}
+
+	// position after the first '\n' at or after position
+	private static long nextLine(FileChannel channel, long position,
+			long fileSize, ByteBuffer one) throws IOException {
+		while (position < fileSize) {
+			one.clear();
+			channel.read(one, position++);
+			if (one.get(0) == '\n')
+				break;
+		}
+		return position;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long from, long to)
+			throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+	}
+
+	// number of non-empty lines
+	private static long countRows(MappedByteBuffer buffer) {
+		long rows = 0;
+		boolean hasContent = false;
+		int limit = buffer.limit();
+		for (int i = 0; i < limit; i++) {
+			byte b = buffer.get(i);
+			if (b == '\n') {
+				if (hasContent)
+					rows++;
+				hasContent = false;
+			} else if (b != '\r')
+				hasContent = true;
+		}
+		return hasContent ? rows + 1 : rows;
+	}
+
+	private void parseRows(MappedByteBuffer buffer, FileChannel outChannel,
+			long position, int elementBytes) throws IOException {
+		ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		int rowBytes = (numInputs + numOutputs) * elementBytes;
+		double[] values = new double[numInputs + numOutputs];
+		int limit = buffer.limit();
+		int i = 0;
+
+		while (i < limit) {
+			// skip empty lines
+			byte b = buffer.get(i);
+			if (b == '\n' || b == '\r') {
+				i++;
+				continue;
+			}
+
+			int column = 0;
+			int found = 0;
+			while (true) {
+				// parse one field: [+-]digits[.digits][(e|E)[+-]digits]
+				int target = (column < columnTargets.length) ? columnTargets[column]
+						: -1;
+				if (target >= 0) {
+					while (i < limit
+							&& ((b = buffer.get(i)) == ' ' || (b == '\t' && delimiter != '\t')))
+						i++;
+					boolean negative = false;
+					if (i < limit && ((b = buffer.get(i)) == '-' || b == '+')) {
+						negative = (b == '-');
+						i++;
+					}
+					long mantissa = 0;
+					int exponent = 0;
+					int digits = 0;
+					boolean point = false;
+					while (i < limit) {
+						b = buffer.get(i);
+						if (b >= '0' && b <= '9') {
+							if (mantissa < 100000000000000000L) {
+								mantissa = mantissa * 10 + (b - '0');
+								if (point)
+									exponent--;
+							} else if (!point)
+								exponent++;
+							digits++;
+						} else if (b == '.' && !point)
+							point = true;
+						else
+							break;
+						i++;
+					}
+					if (digits == 0)
+						throw new NumberFormatException("parseRows: no number at byte "
+								+ i + " of range");
+					if (i < limit && ((b = buffer.get(i)) == 'e' || b == 'E')) {
+						i++;
+						boolean negativeExponent = false;
+						if (i < limit && ((b = buffer.get(i)) == '-' || b == '+')) {
+							negativeExponent = (b == '-');
+							i++;
+						}
+						int e = 0;
+						while (i < limit && (b = buffer.get(i)) >= '0' && b <= '9') {
+							e = e * 10 + (b - '0');
+							i++;
+						}
+						exponent += negativeExponent ? -e : e;
+					}
+					double value = toDouble(mantissa, exponent);
+					values[target] = negative ? -value : value;
+					found++;
+				}
+
+				// skip to the end of the field
+				while (i < limit && (b = buffer.get(i)) != delimiter && b != '\n')
+					i++;
+				if (i >= limit || b == '\n') {
+					i++;
+					break;
+				}
+				i++;
+				column++;
+			}
+
+			if (found != values.length)
+				throw new NumberFormatException("parseRows: row has "
+						+ (column + 1) + " columns, selected columns missing");
+
+			if (writeBuffer.remaining() < rowBytes) {
+				position = flush(writeBuffer, outChannel, position);
+			}
+			for (int v = 0; v < values.length; v++) {
+				if (elementBytes == MappedDataSet.ELEMENT_FLOAT)
+					writeBuffer.putFloat((float) values[v]);
+				else
+					writeBuffer.putDouble(values[v]);
+			}
+		}
+
+		flush(writeBuffer, outChannel, position);
+	}
+
+	private static double toDouble(long mantissa, int exponent) {
+		if (exponent == 0 || mantissa == 0)
+			return mantissa;
+		if (exponent < 0 && exponent >= -22)
+			return mantissa / POWERS_OF_TEN[-exponent];
+		if (exponent > 0 && exponent <= 22)
+			return mantissa * POWERS_OF_TEN[exponent];
+		return mantissa * Math.pow(10, exponent);
+	}
+
+	private static long flush(ByteBuffer buffer, FileChannel channel,
+			long position) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		buffer.clear();
+		return position;
+	}
+
+	private static void runTasks(ExecutorService executor,
+			ArrayList<Callable<Void>> tasks) throws IOException,
+			InterruptedException {
+		if (executor == null) {
+			try {
+				for (int t = 0; t < tasks.size(); t++)
+					tasks.get(t).call();
+			} catch (IOException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (int t = 0; t < tasks.size(); t++)
+				futures.add(executor.submit(tasks.get(t)));
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("importTo: failed", e.getCause());
+		} finally {
+			for (int t = 0; t < futures.size(); t++)
+				futures.get(t).cancel(true);
+		}
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getRowsImported() {
+		return rowsImported;
+	}
+
+	public long getImportNanos() {
+		return importNanos;
+	}
+
+	public double getMegabytesPerSecond() {
+		return bytesRead / 1048576.0 / (importNanos / 1e9);
+	}
+
+	public double getRowsPerSecond() {
+		return rowsImported / (importNanos / 1e9);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+/**
+*
+* @author creativeongreen
+* 
+* Training set held in two row-major flat arrays, e.g. filled by BooleanDataSetGenerator
+* 
+*/
+public class FlatDataSet implements TrainingDataSet {
+
+	private final double[] inputs;
+	private final double[] outputs;
+	private final int numInputs;
+	private final int numOutputs;
+	private final int sampleCount;
+
+	public FlatDataSet(double[] inputs, int numInputs, double[] outputs,
+			int numOutputs) {
+		if (inputs.length / numInputs != outputs.length / numOutputs)
+			throw new RuntimeException(
+					"FlatDataSet: inputs and outputs hold different numbers of samples.");
+
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.sampleCount = inputs.length / numInputs;
+	}
+
+	// samples of a truth table generated into newly allocated flat arrays
+	public static FlatDataSet generate(BooleanDataSetGenerator generator)
+			throws InterruptedException {
+		int count = (int) generator.getSampleCount();
+		double[] inputs = new double[count * generator.getNumInputs()];
+		double[] outputs = new double[count * generator.getNumOutputs()];
+		generator.fill(inputs, outputs, 0, count, null);
+		return new FlatDataSet(inputs, generator.getNumInputs(), outputs,
+				generator.getNumOutputs());
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public void readBatch(long fromSample, int count, double[] inputs,
+			double[] outputs) {
+		System.arraycopy(this.inputs, (int) fromSample * numInputs, inputs, 0,
+				count * numInputs);
+		System.arraycopy(this.outputs, (int) fromSample * numOutputs, outputs,
+				0, count * numOutputs);
+	}
+
+	public double[] getInputs() {
+		return inputs;
+	}
+
+	public double[] getOutputs() {
+		return outputs;
+	}
+
+}
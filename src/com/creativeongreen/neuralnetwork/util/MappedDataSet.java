@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+*
+* @author creativeongreen
+* 
+* Binary training set file read through memory mapping, so it may be far larger than the heap
+* 
+* file layout, little endian:
+* 	header (32 bytes): magic "NNDS", version, element size (4: float, 8: double), numInputs,
+* 	numOutputs, reserved, sampleCount (long)
+* 	rows: { input0 .. inputN-1, output0 .. outputM-1 } per sample
+* 
+*/
+public class MappedDataSet implements TrainingDataSet, Closeable {
+
+	public static final int MAGIC = 0x4e4e4453; // "NNDS"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 32;
+	public static final int ELEMENT_FLOAT = 4;
+	public static final int ELEMENT_DOUBLE = 8;
+
+	// a single mapping is limited to 2 GB, larger files are mapped in regions of whole rows
+	private static final long MAX_REGION_BYTES = 1L << 30;
+
+	private final RandomAccessFile file;
+	private final int elementBytes;
+	private final int numInputs;
+	private final int numOutputs;
+	private final long sampleCount;
+	private final int rowValues;
+	private final long rowsPerRegion;
+
+	// per region view, only duplicated (never moved) by readers, so reads may run concurrently
+	private final FloatBuffer[] floatRegions;
+	private final DoubleBuffer[] doubleRegions;
+
+	public MappedDataSet(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					throw new IOException("MappedDataSet: truncated header.");
+			header.flip();
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("MappedDataSet: not a data set file.");
+			elementBytes = header.getInt();
+			numInputs = header.getInt();
+			numOutputs = header.getInt();
+			header.getInt(); // reserved
+			sampleCount = header.getLong();
+			if (elementBytes != ELEMENT_FLOAT && elementBytes != ELEMENT_DOUBLE)
+				throw new IOException("MappedDataSet: bad element size "
+						+ elementBytes);
+
+			rowValues = numInputs + numOutputs;
+			long rowBytes = (long) rowValues * elementBytes;
+			if (channel.size() < HEADER_BYTES + sampleCount * rowBytes)
+				throw new IOException("MappedDataSet: truncated file.");
+
+			rowsPerRegion = Math.max(1, MAX_REGION_BYTES / rowBytes);
+			int numRegions = (int) ((sampleCount + rowsPerRegion - 1) / rowsPerRegion);
+			floatRegions = new FloatBuffer[numRegions];
+			doubleRegions = new DoubleBuffer[numRegions];
+			for (int k = 0; k < numRegions; k++) {
+				long firstRow = k * rowsPerRegion;
+				long rows = Math.min(rowsPerRegion, sampleCount - firstRow);
+				MappedByteBuffer region = channel.map(
+						FileChannel.MapMode.READ_ONLY, HEADER_BYTES + firstRow
+								* rowBytes, rows * rowBytes);
+				region.order(ByteOrder.LITTLE_ENDIAN);
+				if (elementBytes == ELEMENT_FLOAT)
+					floatRegions[k] = region.asFloatBuffer();
+				else
+					doubleRegions[k] = region.asDoubleBuffer();
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public int getElementBytes() {
+		return elementBytes;
+	}
+
+	public void readBatch(long fromSample, int count, double[] inputs,
+			double[] outputs) {
+		int row = 0;
+		while (row < count) {
+			long sample = fromSample + row;
+			int k = (int) (sample / rowsPerRegion);
+			int regionRow = (int) (sample - k * rowsPerRegion);
+			int rows = (int) Math.min(count - row, rowsPerRegion - regionRow);
+
+			if (elementBytes == ELEMENT_FLOAT) {
+				FloatBuffer view = floatRegions[k].duplicate();
+				view.position(regionRow * rowValues);
+				for (int r = row; r < row + rows; r++) {
+					for (int i = 0; i < numInputs; i++)
+						inputs[r * numInputs + i] = view.get();
+					for (int j = 0; j < numOutputs; j++)
+						outputs[r * numOutputs + j] = view.get();
+				}
+			} else {
+				DoubleBuffer view = doubleRegions[k].duplicate();
+				view.position(regionRow * rowValues);
+				for (int r = row; r < row + rows; r++) {
+					view.get(inputs, r * numInputs, numInputs);
+					view.get(outputs, r * numOutputs, numOutputs);
+				}
+			}
+			row += rows;
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/*
+	 * write source into a new data set file at path, streamed in batches; elementBytes
+	 * ELEMENT_FLOAT halves the file size at float precision
+	 */
+	public static void write(File path, TrainingDataSet source,
+			int elementBytes) throws IOException {
+		if (elementBytes != ELEMENT_FLOAT && elementBytes != ELEMENT_DOUBLE)
+			throw new IllegalArgumentException("write: bad element size "
+					+ elementBytes);
+
+		int numInputs = source.getNumInputs();
+		int numOutputs = source.getNumOutputs();
+		long sampleCount = source.getSampleCount();
+		int rowBytes = (numInputs + numOutputs) * elementBytes;
+		int batchSize = Math.max(1, (1 << 20) / rowBytes);
+		double[] inputs = new double[batchSize * numInputs];
+		double[] outputs = new double[batchSize * numOutputs];
+		ByteBuffer buffer = ByteBuffer.allocateDirect(batchSize * rowBytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			writeHeader(channel, elementBytes, numInputs, numOutputs,
+					sampleCount);
+
+			long position = HEADER_BYTES;
+			for (long start = 0; start < sampleCount; start += batchSize) {
+				int rows = (int) Math.min(batchSize, sampleCount - start);
+				source.readBatch(start, rows, inputs, outputs);
+
+				buffer.clear();
+				for (int r = 0; r < rows; r++) {
+					putValues(buffer, inputs, r * numInputs, numInputs,
+							elementBytes);
+					putValues(buffer, outputs, r * numOutputs, numOutputs,
+							elementBytes);
+				}
+				buffer.flip();
+				while (buffer.hasRemaining())
+					position += channel.write(buffer, position);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	static void writeHeader(FileChannel channel, int elementBytes,
+			int numInputs, int numOutputs, long sampleCount) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(elementBytes)
+				.putInt(numInputs).putInt(numOutputs).putInt(0)
+				.putLong(sampleCount);
+		header.flip();
+		long position = 0;
+		while (header.hasRemaining())
+			position += channel.write(header, position);
+	}
+
+	private static void putValues(ByteBuffer buffer, double[] values,
+			int offset, int count, int elementBytes) {
+		for (int i = offset; i < offset + count; i++) {
+			if (elementBytes == ELEMENT_FLOAT)
+				buffer.putFloat((float) values[i]);
+			else
+				buffer.putDouble(values[i]);
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+import java.util.concurrent.Exchanger;
+
+/**
+*
+* @author creativeongreen
+* 
+* Prepare the next batch of a TrainingDataSet on a background thread while the current one is
+* trained; two batch buffers are swapped through an Exchanger, so nothing is copied or allocated
+* per batch
+* 
+* pipeline per batch: read -> shuffle rows (optional) -> input noise (optional)
+* 
+*/
+public class PrefetchingBatchLoader {
+
+	/*
+	 * one buffer of the pair, row-major { inputs } and { outputs } of getRows() samples; valid
+	 * until it is handed back by the next call of next()
+	 */
+	public static final class Batch {
+		private final double[] inputs;
+		private final double[] outputs;
+		private int rows;
+		private boolean endOfEpoch;
+
+		private Batch(int batchSize, int numInputs, int numOutputs) {
+			inputs = new double[batchSize * numInputs];
+			outputs = new double[batchSize * numOutputs];
+		}
+
+		public double[] getInputs() {
+			return inputs;
+		}
+
+		public double[] getOutputs() {
+			return outputs;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		// true for the last batch of an epoch
+		public boolean isEndOfEpoch() {
+			return endOfEpoch;
+		}
+	}
+
+	private final TrainingDataSet dataSet;
+	private final int batchSize;
+	private final int numInputs;
+	private final int numOutputs;
+	private final int numBatches;
+	private final XorShiftRandom random;
+
+	private boolean shuffle = false;
+	private double noiseDegree = 0;
+
+	private Exchanger<Batch> exchanger;
+	private Thread producer;
+	private Batch current;
+	private volatile RuntimeException failure;
+	private volatile boolean stopRequested;
+
+	public PrefetchingBatchLoader(TrainingDataSet dataSet, int batchSize,
+			long seed) {
+		long numSamples = dataSet.getSampleCount();
+		// without batches the producer would spin and next() would block forever
+		if (numSamples < 1)
+			throw new RuntimeException(
+					"PrefetchingBatchLoader: data set has no samples.");
+		this.dataSet = dataSet;
+		this.batchSize = (int) Math.max(1, Math.min(batchSize, numSamples));
+		this.numInputs = dataSet.getNumInputs();
+		this.numOutputs = dataSet.getNumOutputs();
+		this.numBatches = (int) ((numSamples + this.batchSize - 1) / this.batchSize);
+		this.random = new XorShiftRandom(seed);
+	}
+
+	/*
+	 * visit the batches in a new random order every epoch and shuffle the rows inside each
+	 * batch, i.e. a shuffle at batch granularity that keeps reads of a mapped file sequential
+	 */
+	public void setShuffle(boolean shuffle) {
+		this.shuffle = shuffle;
+	}
+
+	// input x becomes x + x * U(-noiseDegree, noiseDegree), 0 turns the noise step off
+	public void setNoiseDegree(double noiseDegree) {
+		this.noiseDegree = noiseDegree;
+	}
+
+	public TrainingDataSet getDataSet() {
+		return dataSet;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	// start preparing batches from the first epoch on; settings must not change until stop()
+	public synchronized void start() {
+		if (producer != null)
+			throw new RuntimeException("start: loader already started.");
+
+		exchanger = new Exchanger<Batch>();
+		current = new Batch(batchSize, numInputs, numOutputs);
+		failure = null;
+		stopRequested = false;
+		producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce(new Batch(batchSize, numInputs, numOutputs));
+			}
+		}, "PrefetchingBatchLoader");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/*
+	 * the next prepared batch, blocks only if it is not ready yet; the batch returned by the
+	 * previous call goes back to the loader and must not be used any more
+	 */
+	public Batch next() throws InterruptedException {
+		if (producer == null)
+			throw new RuntimeException("next: loader not started.");
+
+		current = exchanger.exchange(current);
+		if (failure != null)
+			throw new RuntimeException("next: loading batch failed.", failure);
+		return current;
+	}
+
+	public synchronized void stop() throws InterruptedException {
+		if (producer == null)
+			return;
+
+		stopRequested = true;
+		producer.interrupt();
+		producer.join();
+		producer = null;
+		exchanger = null;
+		current = null;
+	}
+
+	private void produce(Batch filling) {
+		int[] batchOrder = new int[numBatches];
+		for (int b = 0; b < numBatches; b++)
+			batchOrder[b] = b;
+		double[] row = new double[Math.max(numInputs, numOutputs)];
+		long numSamples = dataSet.getSampleCount();
+
+		try {
+			while (true) {
+				if (shuffle)
+					random.shuffle(batchOrder, numBatches);
+
+				for (int b = 0; b < numBatches; b++) {
+					long start = (long) batchOrder[b] * batchSize;
+					int rows = (int) Math.min(batchSize, numSamples - start);
+					try {
+						dataSet.readBatch(start, rows, filling.inputs,
+								filling.outputs);
+						if (shuffle)
+							shuffleRows(filling, rows, row);
+						if (noiseDegree != 0)
+							addNoise(filling.inputs, rows * numInputs);
+					} catch (RuntimeException e) {
+						// wake the consumer, it rethrows on its own thread
+						failure = e;
+						rows = 0;
+					}
+					filling.rows = rows;
+					filling.endOfEpoch = (b == numBatches - 1);
+
+					// readBatch() may have swallowed the interrupt of stop()
+					if (stopRequested)
+						return;
+
+					filling = exchanger.exchange(filling);
+					if (failure != null)
+						return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop()
+		}
+	}
+
+	private void shuffleRows(Batch batch, int rows, double[] row) {
+		for (int i = rows - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			swapRows(batch.inputs, numInputs, i, j, row);
+			swapRows(batch.outputs, numOutputs, i, j, row);
+		}
+	}
+
+	private static void swapRows(double[] data, int width, int i, int j,
+			double[] row) {
+		if (i == j)
+			return;
+		System.arraycopy(data, i * width, row, 0, width);
+		System.arraycopy(data, j * width, data, i * width, width);
+		System.arraycopy(row, 0, data, j * width, width);
+	}
+
+	// same perturbation as the "test with noise" of the logic app
+	private void addNoise(double[] inputs, int count) {
+		for (int k = 0; k < count; k++)
+			inputs[k] += inputs[k]
+					* ((noiseDegree * 2 * random.nextDouble()) - noiseDegree);
+	}
+
+}
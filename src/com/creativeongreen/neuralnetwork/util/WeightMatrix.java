@@ -137,6 +137,70 @@ public class WeightMatrix {
 		return C;
 	}
 
+	/*
+	 * Cholesky factor of a symmetric positive definite matrix A: lower triangular L with
+	 * A = L * L'; only the lower triangle of A is read
+	 */
+	public WeightMatrix cholesky() {
+		WeightMatrix A = this;
+		int n = getRowCount();
+		if (getColumnCount() != n)
+			throw new RuntimeException("cholesky: matrix must be square.");
+
+		WeightMatrix L = new WeightMatrix(n, n);
+		for (int j = 0; j < n; j++) {
+			double[] Lj = L.matrix[j];
+			double d = A.matrix[j][j];
+			for (int k = 0; k < j; k++)
+				d -= Lj[k] * Lj[k];
+			if (!(d > 0))
+				throw new RuntimeException(
+						"cholesky: matrix not positive definite.");
+			Lj[j] = Math.sqrt(d);
+
+			for (int i = j + 1; i < n; i++) {
+				double[] Li = L.matrix[i];
+				double s = A.matrix[i][j];
+				for (int k = 0; k < j; k++)
+					s -= Li[k] * Lj[k];
+				Li[j] = s / Lj[j];
+			}
+		}
+		return L;
+	}
+
+	/*
+	 * X with A * X = B for symmetric positive definite A, e.g. the normal equations
+	 * (H'H + lambda * I) * X = H'T of a least squares fit; forward and back substitution on
+	 * the Cholesky factor, one column of B at a time
+	 */
+	public WeightMatrix solveCholesky(WeightMatrix B) {
+		int n = getRowCount();
+		if (B.getRowCount() != n)
+			throw new RuntimeException(
+					"solveCholesky: Illegal matrix dimensions.");
+
+		WeightMatrix L = cholesky();
+		WeightMatrix X = new WeightMatrix(B.matrix);
+		for (int c = 0; c < X.getColumnCount(); c++) {
+			// L * y = b
+			for (int i = 0; i < n; i++) {
+				double s = X.matrix[i][c];
+				for (int k = 0; k < i; k++)
+					s -= L.matrix[i][k] * X.matrix[k][c];
+				X.matrix[i][c] = s / L.matrix[i][i];
+			}
+			// L' * x = y
+			for (int i = n - 1; i >= 0; i--) {
+				double s = X.matrix[i][c];
+				for (int k = i + 1; k < n; k++)
+					s -= L.matrix[k][i] * X.matrix[k][c];
+				X.matrix[i][c] = s / L.matrix[i][i];
+			}
+		}
+		return X;
+	}
+
 	public boolean equals(WeightMatrix B) {
 		WeightMatrix A = this;
 		if (B.getRowCount() != A.getRowCount()
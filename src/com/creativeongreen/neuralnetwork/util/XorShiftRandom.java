@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 creativeongreen
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creativeongreen.neuralnetwork.util;
+
+/**
+*
+* @author creativeongreen
+* 
+* Small, fast, seeded random generator (xorshift64*) for hot loops such as per-epoch shuffling;
+* not thread-safe, and the whole state is one long so it can be saved and restored
+* 
+*/
+public class XorShiftRandom {
+
+	private long state;
+
+	public XorShiftRandom(long seed) {
+		setSeed(seed);
+	}
+
+	public void setSeed(long seed) {
+		// splitmix64 of the seed, a zero state would only ever give zeros
+		long z = seed + 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z ^= (z >>> 31);
+		state = (z == 0) ? 0x9e3779b97f4a7c15L : z;
+	}
+
+	public long getState() {
+		return state;
+	}
+
+	public void setState(long state) {
+		if (state == 0)
+			throw new IllegalArgumentException("setState: state must not be 0.");
+		this.state = state;
+	}
+
+	public long nextLong() {
+		long x = state;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		state = x;
+		return x * 0x2545f4914f6cdd1dL;
+	}
+
+	// 0 <= n < bound, by multiply and shift instead of a division
+	public int nextInt(int bound) {
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	// 0 <= d < 1
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	// Fisher-Yates shuffle of the first length entries in place
+	public void shuffle(int[] values, int length) {
+		for (int i = length - 1; i > 0; i--) {
+			int j = nextInt(i + 1);
+			int t = values[i];
+			values[i] = values[j];
+			values[j] = t;
+		}
+	}
+
+}